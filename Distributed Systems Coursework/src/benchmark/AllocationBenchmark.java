@@ -0,0 +1,73 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import network.Network;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Measures how many bytes the simulator allocates per delivered message in each phase, using the JVM's per-thread
+ * allocation counter. Message tracing, console output and the log file are switched off so that only the simulation
+ * itself is measured.
+ *
+ * The nodes are laid out along a line with random spacing, so that each node has a handful of neighbours.
+ *
+ * Usage: AllocationBenchmark [numNodes] [numBroadcasts]
+ */
+public class AllocationBenchmark {
+
+	private static final float RANGE = 2.5f;
+	private static final float AVERAGE_NEIGHBOURS = 3.0f;
+	private static final long SEED = 42;
+
+	public static void main(String[] args){
+		int numNodes = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int numBroadcasts = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		// Run once to warm up, then measure the second run.
+		for (int run = 0; run < 2; run++){
+			Network network = lineNetwork(numNodes, numBroadcasts);
+			network.bus.traceMessages = false;
+			network.log = new Log(new NullSink());
+			network.log.console = false;
+
+			long[] bytes = new long[3];
+			long[] messages = new long[3];
+			for (int phase = 0; phase < 3; phase++){
+				long allocated = threads.getThreadAllocatedBytes(thread);
+				long delivered = network.bus.numDelivered;
+				switch (phase){
+				case 0: network.discover(); break;
+				case 1: network.buildMst(); break;
+				default: network.executeTransmissions();
+				}
+				bytes[phase] = threads.getThreadAllocatedBytes(thread) - allocated;
+				messages[phase] = network.bus.numDelivered - delivered;
+			}
+
+			if (run == 1){
+				String[] phases = {"discover", "buildMst", "executeTransmissions"};
+				System.out.println("phase, messages, bytes allocated, bytes per message");
+				for (int phase = 0; phase < 3; phase++){
+					System.out.printf("%s, %d, %d, %.1f%n", phases[phase], messages[phase], bytes[phase],
+							(double) bytes[phase] / Math.max(1, messages[phase]));
+				}
+			}
+		}
+	}
+
+	private static Network lineNetwork(int numNodes, int numBroadcasts){
+		TopologyGenerator generator = new TopologyGenerator(TopologyGenerator.Layout.LINE, numNodes);
+		generator.range = RANGE;
+		generator.averageNeighbours = AVERAGE_NEIGHBOURS;
+		generator.minEnergy = 1000000.0f;
+		generator.maxEnergy = 1000000.0f;
+		generator.numBroadcasts = numBroadcasts;
+		generator.seed = SEED;
+		return generator.build();
+	}
+}
@@ -0,0 +1,109 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import network.Network;
+import network.ReferenceMst;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Times buildMst() on generated networks with round based GHS (by convergecast, stepped sequentially and in parallel)
+ * and with asynchronous GHS on node actors (-asyncGhs), on each given number of threads, and checks every tree against
+ * Kruskal's algorithm. Discovery isn't timed.
+ *
+ * Besides the time, it reports the messages sent and the throughput in messages per second, and the rounds taken. The
+ * asynchronous build takes no rounds, so for it the rounds are the longest chain of messages, each caused by the one
+ * before, which is how many rounds it would have taken had every message taken one round to arrive.
+ *
+ * Each network is first built once by each engine to warm up the JIT, then the given number of times. Times are the
+ * median of those runs, and the speedup is against sequential round based GHS.
+ *
+ * Usage: AsyncGhsBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-threads=<n,n,...>] [-runs=<n>]
+ */
+public class AsyncGhsBenchmark {
+
+	private static class Engine {
+		String name;
+		Network.MstMode mstMode;
+		Network.ExecutionMode executionMode;
+		int numThreads;
+
+		Engine(String name, Network.MstMode mstMode, Network.ExecutionMode executionMode, int numThreads){
+			this.name = name;
+			this.mstMode = mstMode;
+			this.executionMode = executionMode;
+			this.numThreads = numThreads;
+		}
+	}
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout layout = options.layout(TopologyGenerator.Layout.UNIFORM);
+		int[] sizes = options.ints("-sizes", new int[]{10000, 50000});
+		int[] threads = options.ints("-threads", new int[]{1, 2, 4, 8});
+		int runs = options.integer("-runs", 3);
+		options.check();
+
+		List<Engine> engines = new ArrayList<Engine>();
+		engines.add(new Engine("ghs", Network.MstMode.GHS, Network.ExecutionMode.SEQUENTIAL, 1));
+		for (int n : threads){
+			if (n > 1) engines.add(new Engine("ghs", Network.MstMode.GHS, Network.ExecutionMode.PARALLEL, n));
+		}
+		for (int n : threads){
+			engines.add(new Engine("async", Network.MstMode.ASYNC_GHS, Network.ExecutionMode.SEQUENTIAL, n));
+		}
+
+		System.out.println("layout, nodes, engine, threads, ms, speedup, rounds, messages, messages per s, matches kruskal");
+		for (int size : sizes){
+			TopologyGenerator generator = new TopologyGenerator(layout, size);
+			long[][] times = new long[engines.size()][runs];
+			int[] rounds = new int[engines.size()];
+			long[] messages = new long[engines.size()];
+			boolean[] matches = new boolean[engines.size()];
+			for (int run = -1; run < runs; run++){
+				for (int e = 0; e < engines.size(); e++){
+					Engine engine = engines.get(e);
+					Network network = generator.build();
+					network.mstMode = engine.mstMode;
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = engine.executionMode;
+					network.numThreads = engine.numThreads;
+					network.bus.traceMessages = false;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					network.discover();
+					long start = System.nanoTime();
+					network.buildMst();
+					long time = System.nanoTime() - start;
+
+					if (run >= 0){
+						times[e][run] = time;
+						rounds[e] = network.mstRounds;
+						messages[e] = network.mstMessages;
+						matches[e] = new ReferenceMst(network.nodes).matches(network.nodes);
+					}
+				}
+			}
+
+			double sequentialMs = median(times[0]) / 1e6;
+			for (int e = 0; e < engines.size(); e++){
+				Engine engine = engines.get(e);
+				double ms = median(times[e]) / 1e6;
+				System.out.printf("%s, %d, %s, %d, %.1f, %.2f, %d, %d, %.0f, %s%n", layout, size, engine.name,
+						engine.numThreads, ms, sequentialMs / ms, rounds[e], messages[e], messages[e] / (ms / 1000),
+						matches[e] ? "yes" : "NO");
+			}
+		}
+	}
+
+	private static double median(long[] values){
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int middle = sorted.length / 2;
+		return (sorted.length % 2 == 1) ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+	}
+}
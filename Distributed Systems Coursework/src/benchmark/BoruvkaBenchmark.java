@@ -0,0 +1,51 @@
+package benchmark;
+
+
+import network.Network;
+import network.ReferenceMst;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Builds the MST of generated networks with GHS (by convergecast) and with the Boruvka fast mode, checks both against
+ * Kruskal's algorithm, and compares the time each one takes. GHS is skipped on networks larger than GHS_MAX_NODES,
+ * where it takes too long.
+ *
+ * Usage: BoruvkaBenchmark [numNodes ...]
+ */
+public class BoruvkaBenchmark {
+
+	private static final int GHS_MAX_NODES = 20000;
+
+	public static void main(String[] args){
+		int[] sizes = {1000, 10000, 100000, 1000000};
+		if (args.length > 0){
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+		}
+		System.out.println("layout, nodes, mode, phases, ms, matches kruskal");
+		for (TopologyGenerator.Layout layout : TopologyGenerator.Layout.values()){
+			for (int size : sizes){
+				for (Network.MstMode mode : Network.MstMode.values()){
+					if (mode == Network.MstMode.GHS && size > GHS_MAX_NODES) continue;
+					if (mode == Network.MstMode.ASYNC_GHS) continue; // See AsyncGhsBenchmark
+					Network network = new TopologyGenerator(layout, size).build();
+					network.mstMode = mode;
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = Network.ExecutionMode.EVENT_DRIVEN;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					network.discover();
+					long start = System.nanoTime();
+					network.buildMst();
+					long time = System.nanoTime() - start;
+
+					boolean matches = new ReferenceMst(network.nodes).matches(network.nodes);
+					System.out.printf("%s, %d, %s, %d, %.1f, %s%n", layout, size, mode, network.mstPhases, time / 1e6,
+							matches ? "yes" : "NO");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package benchmark;
+
+import java.util.List;
+
+import network.Network;
+import network.Node;
+import network.SpatialGrid;
+
+/**
+ * Compares the time taken to find every pair of nodes in range using a full pairwise scan (as discover() used to)
+ * against the spatial grid index. Nodes are placed uniformly at random with a density that gives each node roughly
+ * the same number of neighbours at every size.
+ *
+ * Usage: DiscoveryBenchmark [numNodes ...]
+ */
+public class DiscoveryBenchmark {
+
+	private static final float RANGE = 10.0f;
+	private static final int AVERAGE_NEIGHBOURS = 8;
+	private static final long SEED = 42;
+
+	public static void main(String[] args){
+		int[] sizes = {1000, 10000, 50000};
+		if (args.length > 0){
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		System.out.println("nodes, pairs, scan ms, grid ms, speedup");
+		for (int size : sizes){
+			Network network = randomNetwork(size);
+
+			// Warm up both paths on a small network so we don't time the JIT.
+			Network warmup = randomNetwork(2000);
+			pairsByScan(warmup.nodes);
+			pairsByGrid(warmup.nodes);
+
+			long start = System.nanoTime();
+			long scanPairs = pairsByScan(network.nodes);
+			long scanTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long gridPairs = pairsByGrid(network.nodes);
+			long gridTime = System.nanoTime() - start;
+
+			if (scanPairs != gridPairs){
+				System.err.println("Pair counts differ: scan " + scanPairs + ", grid " + gridPairs);
+				System.exit(-1);
+			}
+			System.out.printf("%d, %d, %.1f, %.1f, %.1fx%n", size, gridPairs, scanTime / 1e6, gridTime / 1e6,
+					(double) scanTime / gridTime);
+		}
+	}
+
+	private static Network randomNetwork(int size){
+		TopologyGenerator generator = new TopologyGenerator(TopologyGenerator.Layout.UNIFORM, size);
+		generator.range = RANGE;
+		generator.averageNeighbours = AVERAGE_NEIGHBOURS;
+		generator.seed = SEED;
+		return generator.build();
+	}
+	private static long pairsByScan(List<Node> nodes){
+		long pairs = 0;
+		for (Node n : nodes){
+			for (Node m : nodes){
+				if (n.nodeId != m.nodeId && Network.distanceBetweenNodes(n, m) <= n.range()) pairs++;
+			}
+		}
+		return pairs;
+	}
+
+	private static long pairsByGrid(List<Node> nodes){
+		long pairs = 0;
+		SpatialGrid grid = new SpatialGrid(nodes);
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			int numCandidates = grid.collectCandidates(i);
+			for (int k = 0; k < numCandidates; k++){
+				Node m = nodes.get(grid.candidate(k));
+				if (n.nodeId != m.nodeId && Network.distanceBetweenNodes(n, m) <= n.range()) pairs++;
+			}
+		}
+		return pairs;
+	}
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+
+import network.Message;
+import network.Network;
+import network.ReferenceMst;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Builds the MST of generated networks with GHS (by convergecast), first testing every neighbour in every phase and
+ * then with edges classified, so that only basic edges are tested, lightest first. Reports the TEST_EDGE and
+ * REJECT_EDGE messages each one sends over the whole of buildMst(), along with its rounds and messages, and checks
+ * both trees against Kruskal's algorithm.
+ *
+ * Usage: EdgeClassificationBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-neighbours=<average>]
+ */
+public class EdgeClassificationBenchmark {
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout[] layouts = options.layoutOrAll();
+		int[] sizes = options.ints("-sizes", new int[]{1000, 5000});
+		float averageNeighbours = options.floating("-neighbours", 0);
+		options.check();
+
+		System.out.println("layout, nodes, classified, tests, rejects, accepts, phases, rounds, messages, tests saved, "
+				+ "rejects saved, ms, matches kruskal");
+		for (TopologyGenerator.Layout layout : layouts){
+			for (int size : sizes){
+				long allTests = 0;
+				long allRejects = 0;
+				for (boolean classify : new boolean[] {false, true}){
+					TopologyGenerator generator = new TopologyGenerator(layout, size);
+					if (averageNeighbours > 0) generator.averageNeighbours = averageNeighbours;
+					Network network = generator.build();
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = Network.ExecutionMode.EVENT_DRIVEN;
+					network.classifyEdges = classify;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					network.discover();
+					long[] before = network.bus.numDeliveredByType.clone();
+					long start = System.nanoTime();
+					network.buildMst();
+					long time = System.nanoTime() - start;
+
+					long tests = delivered(network, before, Message.Type.TEST_EDGE);
+					long rejects = delivered(network, before, Message.Type.REJECT_EDGE);
+					long accepts = delivered(network, before, Message.Type.ACCEPT_EDGE);
+					if (!classify){
+						allTests = tests;
+						allRejects = rejects;
+					}
+					boolean matches = new ReferenceMst(network.nodes).matches(network.nodes);
+					System.out.printf("%s, %d, %s, %d, %d, %d, %d, %d, %d, %.1f%%, %.1f%%, %.1f, %s%n", layout, size,
+							classify ? "yes" : "no", tests, rejects, accepts, network.mstPhases, network.mstRounds,
+							network.mstMessages, saved(allTests, tests), saved(allRejects, rejects), time / 1e6,
+							matches ? "yes" : "NO");
+				}
+			}
+		}
+	}
+
+	private static long delivered(Network network, long[] before, Message.Type type){
+		return network.bus.numDeliveredByType[type.ordinal()] - before[type.ordinal()];
+	}
+
+	private static double saved(long all, long classified){
+		return (all == 0) ? 0 : 100.0 * (all - classified) / all;
+	}
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import network.Network;
+import network.Node;
+import simulator.FastInputParser;
+import simulator.InputParser;
+
+/**
+ * Compares the time taken by InputParser and FastInputParser to load the same generated input file, and checks that
+ * both build the same network. The file is generated with nodes spread uniformly at random, and one broadcast for
+ * every thousand nodes.
+ *
+ * Usage: InputParserBenchmark [numNodes] [runs]
+ */
+public class InputParserBenchmark {
+
+	private static final float RANGE = 10.0f;
+
+	public static void main(String[] args) throws IOException {
+		int numNodes = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+
+		File file = File.createTempFile("topology", ".txt");
+		file.deleteOnExit();
+		TopologyGenerator generator = new TopologyGenerator(TopologyGenerator.Layout.UNIFORM, numNodes);
+		generator.range = RANGE;
+		generator.minEnergy = 0.0f;
+		generator.numBroadcasts = numNodes / 1000;
+		generator.write(file.getPath());
+		System.out.printf("%d nodes, %.1f MB%n", numNodes, file.length() / 1e6);
+
+		// The first run of each warms up the JIT, and the best of the rest is reported.
+		long best = Long.MAX_VALUE;
+		long bestFast = Long.MAX_VALUE;
+		Network network = null;
+		Network fastNetwork = null;
+		for (int run = 0; run <= runs; run++){
+			long start = System.nanoTime();
+			network = InputParser.buildNetwork(file.getPath(), RANGE);
+			long time = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			fastNetwork = FastInputParser.buildNetwork(file.getPath(), RANGE);
+			long fastTime = System.nanoTime() - start;
+
+			if (run > 0){
+				best = Math.min(best, time);
+				bestFast = Math.min(bestFast, fastTime);
+			}
+		}
+
+		if (!sameNetwork(network, fastNetwork)){
+			System.err.println("The parsers built different networks");
+			System.exit(-1);
+		}
+		System.out.println("parser, ms, lines per second");
+		System.out.printf("InputParser, %.1f, %.0f%n", best / 1e6, numNodes / (best / 1e9));
+		System.out.printf("FastInputParser, %.1f, %.0f%n", bestFast / 1e6, numNodes / (bestFast / 1e9));
+		System.out.printf("speedup, %.1fx%n", (double) best / bestFast);
+	}
+
+	private static boolean sameNetwork(Network a, Network b){
+		if (a.minimumEnergy != b.minimumEnergy || a.nodes.size() != b.nodes.size()) return false;
+		for (int i = 0; i < a.nodes.size(); i++){
+			Node n = a.nodes.get(i);
+			Node m = b.nodes.get(i);
+			if (n.nodeId != m.nodeId || n.positionX() != m.positionX() || n.positionY() != m.positionY()
+					|| n.energyLevel() != m.energyLevel() || n.range() != m.range()) return false;
+		}
+		if (a.broadcastIds.size() != b.broadcastIds.size()) return false;
+		Iterator<Integer> it = b.broadcastIds.iterator();
+		for (int id : a.broadcastIds){
+			if (id != it.next()) return false;
+		}
+		return true;
+	}
+}
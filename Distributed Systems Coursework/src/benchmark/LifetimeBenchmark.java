@@ -0,0 +1,68 @@
+package benchmark;
+
+
+import network.Network;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Compares how long generated networks last with MSTs over distance weights and over energy aware weights. Each
+ * network is given many broadcasts, and the benchmark reports how many of them completed before the first node died,
+ * and before the k-th, with each kind of weight. A network in which fewer than k nodes died is reported as lasting
+ * all its broadcasts, marked with a '+'.
+ *
+ * MSTs are built in the Boruvka mode, as the energy aware weights rebuild the MST after every broadcast. Pass -ghs to
+ * build them with GHS (by convergecast) instead, which gives the same trees more slowly.
+ *
+ * Usage: LifetimeBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-broadcasts=<n>] [-deaths=<k>] [-ghs]
+ */
+public class LifetimeBenchmark {
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout[] layouts = options.layoutOrAll();
+		int[] sizes = options.ints("-sizes", new int[]{100, 1000});
+		int numBroadcasts = options.integer("-broadcasts", 2000);
+		int k = options.integer("-deaths", 10);
+		Network.MstMode mstMode = options.flag("-ghs") ? Network.MstMode.GHS : Network.MstMode.BORUVKA;
+		options.check();
+
+		System.out.println("layout, nodes, weights, broadcasts before first death, broadcasts before death " + k
+				+ ", nodes alive at end, ms");
+		for (TopologyGenerator.Layout layout : layouts){
+			for (int size : sizes){
+				TopologyGenerator generator = new TopologyGenerator(layout, size);
+				generator.numBroadcasts = numBroadcasts;
+				generator.minEnergy = 200.0f;
+				generator.maxEnergy = 1000.0f;
+				for (Network.WeightMode weights : Network.WeightMode.values()){
+					Network network = generator.build();
+					network.weightMode = weights;
+					network.mstMode = mstMode;
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = Network.ExecutionMode.EVENT_DRIVEN;
+					network.bus.traceMessages = false;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					long start = System.nanoTime();
+					network.discover();
+					network.buildMst();
+					network.executeTransmissions();
+					long time = System.nanoTime() - start;
+
+					int numAlive = 0;
+					for (int i = 0; i < network.nodes.size(); i++) if (network.nodes.get(i).isAlive()) numAlive++;
+					System.out.printf("%s, %d, %s, %s, %s, %d, %.1f%n", layout, size, weights,
+							lifetime(network, 1, numBroadcasts), lifetime(network, k, numBroadcasts), numAlive,
+							time / 1e6);
+				}
+			}
+		}
+	}
+
+	private static String lifetime(Network network, int deaths, int numBroadcasts){
+		if (network.broadcastsBeforeDeath.size() < deaths) return numBroadcasts + "+";
+		return Integer.toString(network.broadcastsBeforeDeath.get(deaths - 1));
+	}
+}
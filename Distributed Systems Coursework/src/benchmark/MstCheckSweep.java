@@ -0,0 +1,108 @@
+package benchmark;
+
+import java.io.File;
+
+import network.Network;
+import simulator.FastInputParser;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Runs the whole simulation on many generated networks with checkMst switched on, so that the tree is checked against
+ * ReferenceMst after the MST is built and after every repair. Energy levels are low enough that nodes die during the
+ * broadcasts, so the repairs are exercised too. The example input files are run too, at each of INPUT_RANGES, as they
+ * have caught hangs that the generated networks didn't (e.g. input0 with energy aware weights).
+ *
+ * Prints a line for every network that fails a check, with the settings to regenerate it, and a total at the end.
+ * The process exits with status 1 if any check failed.
+ *
+ * Usage: MstCheckSweep [-layout=<layout>] [-sizes=<n,n,...>] [-seeds=<n>] [-broadcasts=<n>] [-mode=<executionMode>]
+ *                      [-boruvka | -asyncGhs] [-incrementalRepair] [-classifyEdges] [-energyAware]
+ *                      [-inputs=<file,file,...>]
+ */
+public class MstCheckSweep {
+
+	private static final String[] INPUTS = {
+		"input/input0.txt", "input/input1.txt", "input/input2.txt", "input/input3.txt"
+	};
+	private static final float[] INPUT_RANGES = {10, 20};
+
+	private static Network.ExecutionMode mode = Network.ExecutionMode.SEQUENTIAL;
+	private static Network.MstMode mstMode = Network.MstMode.GHS;
+	private static Network.WeightMode weightMode = Network.WeightMode.DISTANCE;
+	private static boolean incrementalRepair = false;
+	private static boolean classifyEdges = false;
+
+	private static int numNetworks;
+	private static int numChecks;
+	private static int numFailed;
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout[] layouts = options.layoutOrAll();
+		int[] sizes = options.ints("-sizes", new int[]{10, 100, 1000});
+		int numSeeds = options.integer("-seeds", 20);
+		int numBroadcasts = options.integer("-broadcasts", 20);
+		String[] inputs = options.strings("-inputs", INPUTS);
+		mode = options.executionMode();
+		if (options.flag("-boruvka")) mstMode = Network.MstMode.BORUVKA;
+		if (options.flag("-asyncGhs")) mstMode = Network.MstMode.ASYNC_GHS;
+		incrementalRepair = options.flag("-incrementalRepair");
+		classifyEdges = options.flag("-classifyEdges");
+		if (options.flag("-energyAware")) weightMode = Network.WeightMode.ENERGY_AWARE;
+		options.check();
+
+		long start = System.nanoTime();
+		for (TopologyGenerator.Layout layout : layouts){
+			for (int size : sizes){
+				for (int seed = 0; seed < numSeeds; seed++){
+					TopologyGenerator generator = new TopologyGenerator(layout, size);
+					generator.seed = seed;
+					generator.numBroadcasts = numBroadcasts;
+					generator.minEnergy = 20.0f;
+					generator.maxEnergy = 200.0f;
+					check(generator.build(), String.format("layout %s, %d nodes, seed %d", layout, size, seed));
+				}
+			}
+		}
+		for (String input : inputs){
+			if (!new File(input).exists()){
+				System.out.println("Skipping " + input + ", which doesn't exist");
+				continue;
+			}
+			for (float range : INPUT_RANGES){
+				check(FastInputParser.buildNetwork(input, range), input + ", range " + range);
+			}
+		}
+		System.out.printf("%d networks, %d checks, %d networks failed, %.1f s%n", numNetworks, numChecks, numFailed,
+				(System.nanoTime() - start) / 1e9);
+		if (numFailed > 0) System.exit(1);
+	}
+
+	/**
+	 * Run the whole simulation on the network with the sweep's settings, and print its settings if any check failed.
+	 */
+	private static void check(Network network, String settings){
+		// The broadcast reporting mode does not terminate on most networks in which nodes have many neighbours.
+		network.reportMode = Network.ReportMode.CONVERGECAST;
+		network.executionMode = mode;
+		network.mstMode = mstMode;
+		network.weightMode = weightMode;
+		network.incrementalRepair = incrementalRepair;
+		network.classifyEdges = classifyEdges;
+		network.checkMst = true;
+		network.log = new Log(new NullSink());
+		network.log.console = false;
+
+		network.discover();
+		network.buildMst();
+		network.executeTransmissions();
+
+		numNetworks++;
+		numChecks += network.mstChecks;
+		if (network.mstCheckFailures > 0){
+			numFailed++;
+			System.out.printf("FAILED: %s: %d of %d checks%n", settings, network.mstCheckFailures, network.mstChecks);
+		}
+	}
+}
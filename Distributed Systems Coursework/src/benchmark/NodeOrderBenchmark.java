@@ -0,0 +1,94 @@
+package benchmark;
+
+import java.util.Arrays;
+
+import network.Network;
+import network.NodeOrder;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Times discover(), buildMst() and executeTransmissions() on generated networks with their nodes in the order of the
+ * file, and put in order along a Morton and a Hilbert curve by Network.orderNodes(). The generator numbers nodes in
+ * random order, so in the file's order the neighbours of a node are spread over the whole node list and the heap.
+ * Nodes are stepped in index order, and send to their neighbours in the order they were discovered, so messages can
+ * arrive in a different order once the nodes are ordered. The tree is the same, but GHS can take a round or a few
+ * messages more or less to build it.
+ *
+ * Each network is first run once in each order to warm up the JIT, then the given number of times. Times are the
+ * median of those runs, and the speedup is against the file's order. The time to order the nodes is reported as its
+ * own phase.
+ *
+ * Usage: NodeOrderBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-runs=<n>] [-broadcasts=<n>] [-mode=<executionMode>]
+ */
+public class NodeOrderBenchmark {
+
+	private static final String[] PHASES = {"orderNodes", "discover", "buildMst", "executeTransmissions"};
+	private static final NodeOrder.Curve[] ORDERS = {null, NodeOrder.Curve.MORTON, NodeOrder.Curve.HILBERT};
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout layout = options.layout(TopologyGenerator.Layout.UNIFORM);
+		int[] sizes = options.ints("-sizes", new int[]{10000, 50000});
+		int runs = options.integer("-runs", 3);
+		int numBroadcasts = options.integer("-broadcasts", 10);
+		Network.ExecutionMode mode = options.executionMode();
+		options.check();
+
+		System.out.println("layout, nodes, order, phase, ms, speedup, rounds, messages");
+		for (int size : sizes){
+			TopologyGenerator generator = new TopologyGenerator(layout, size);
+			generator.numBroadcasts = numBroadcasts;
+
+			long[][][] times = new long[ORDERS.length][PHASES.length][runs];
+			int[][] rounds = new int[ORDERS.length][PHASES.length];
+			long[][] messages = new long[ORDERS.length][PHASES.length];
+			for (int run = -1; run < runs; run++){
+				for (int order = 0; order < ORDERS.length; order++){
+					Network network = generator.build();
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = mode;
+					network.bus.traceMessages = false;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					for (int phase = 0; phase < PHASES.length; phase++){
+						int startRounds = network.numRounds;
+						long startMessages = network.bus.numDelivered;
+						long start = System.nanoTime();
+						switch (phase){
+						case 0: if (ORDERS[order] != null) network.orderNodes(ORDERS[order]); break;
+						case 1: network.discover(); break;
+						case 2: network.buildMst(); break;
+						default: network.executeTransmissions();
+						}
+						long time = System.nanoTime() - start;
+						if (run >= 0){
+							times[order][phase][run] = time;
+							rounds[order][phase] = network.numRounds - startRounds;
+							messages[order][phase] = network.bus.numDelivered - startMessages;
+						}
+					}
+				}
+			}
+
+			for (int order = 0; order < ORDERS.length; order++){
+				String name = (ORDERS[order] == null) ? "file" : ORDERS[order].name().toLowerCase();
+				for (int phase = 0; phase < PHASES.length; phase++){
+					double ms = median(times[order][phase]) / 1e6;
+					double fileMs = median(times[0][phase]) / 1e6;
+					String speedup = (phase == 0) ? "" : String.format("%.2f", fileMs / ms);
+					System.out.printf("%s, %d, %s, %s, %.1f, %s, %d, %d%n", layout, size, name, PHASES[phase], ms,
+							speedup, rounds[order][phase], messages[order][phase]);
+				}
+			}
+		}
+	}
+
+	private static double median(long[] values){
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int middle = sorted.length / 2;
+		return (sorted.length % 2 == 1) ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+	}
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+import network.Network;
+import network.NodeStore;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Measures the memory and per round time of large networks, whose nodes keep their positions, energy, ranges, leaders
+ * and liveness in the network's NodeStore. For each size it reports:
+ *
+ * > the heap the network takes once discovered and its MST built, per node, and how much of that is the store, and
+ * > the time discover(), buildMst() (in the Boruvka mode) and executeTransmissions() take, and the time per round of
+ *   executeTransmissions(), in which every round steps each alive node and checks whether it is alive.
+ *
+ * The heap is the heap in use (after garbage collection) with the network reachable, less that in use before it was
+ * built. Run with a heap large enough for the largest network, e.g. -Xmx4g for a million nodes.
+ *
+ * Usage: NodeStoreBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-broadcasts=<n>] [-mode=<executionMode>]
+ */
+public class NodeStoreBenchmark {
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout layout = options.layout(TopologyGenerator.Layout.UNIFORM);
+		int[] sizes = options.ints("-sizes", new int[]{100000, 1000000});
+		int numBroadcasts = options.integer("-broadcasts", 10);
+		Network.ExecutionMode mode = options.executionMode();
+		options.check();
+
+		System.out.println("layout, nodes, bytes per node, store bytes per node, discover ms, buildMst ms, "
+				+ "executeTransmissions ms, transmission rounds, ms per round");
+		for (int size : sizes){
+			TopologyGenerator generator = new TopologyGenerator(layout, size);
+			generator.numBroadcasts = numBroadcasts;
+			long startBytes = usedHeap();
+			Network network = generator.build();
+			network.mstMode = Network.MstMode.BORUVKA;
+			network.executionMode = mode;
+			network.bus.traceMessages = false;
+			network.log = new Log(new NullSink());
+			network.log.console = false;
+
+			long start = System.nanoTime();
+			network.discover();
+			long discoverTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			network.buildMst();
+			long buildTime = System.nanoTime() - start;
+			long bytes = usedHeap() - startBytes;
+
+			start = System.nanoTime();
+			network.executeTransmissions();
+			long transmitTime = System.nanoTime() - start;
+			int rounds = Math.max(network.transmissionRounds, 1);
+
+			System.out.printf("%s, %d, %d, %d, %.1f, %.1f, %.1f, %d, %.3f%n", layout, size, bytes / size,
+					storeBytes(network.store) / size, discoverTime / 1e6, buildTime / 1e6, transmitTime / 1e6,
+					network.transmissionRounds, transmitTime / 1e6 / rounds);
+		}
+	}
+
+	private static long storeBytes(NodeStore store){
+		long floats = store.positionX.length + store.positionY.length + store.energyLevel.length + store.range.length;
+		return 4 * (floats + store.leaderId.length) + store.alive.length + store.leader.length;
+	}
+
+	private static long usedHeap(){
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
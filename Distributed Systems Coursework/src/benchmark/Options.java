@@ -0,0 +1,130 @@
+package benchmark;
+
+import network.Network;
+
+/**
+ * The command line options of a benchmark, each given as -name or -name=value. Each option is read, with its default,
+ * by one of the methods below; if one is given more than once, the last one counts. Once all of them have been read,
+ * check() exits if any argument wasn't one of them.
+ */
+class Options {
+
+	private String[] args;
+	private boolean[] used;
+
+	Options(String[] args){
+		this.args = args;
+		this.used = new boolean[args.length];
+	}
+
+	/**
+	 * @return true if -name was given
+	 */
+	boolean flag(String name){
+		boolean given = false;
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals(name)){
+				used[i] = true;
+				given = true;
+			}
+		}
+		return given;
+	}
+
+	/**
+	 * @return the value of -name=value, or defaultValue if it wasn't given
+	 */
+	String string(String name, String defaultValue){
+		String prefix = name + "=";
+		String value = defaultValue;
+		for (int i = 0; i < args.length; i++){
+			if (args[i].startsWith(prefix)){
+				used[i] = true;
+				value = args[i].substring(prefix.length());
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return the comma separated values of -name=a,b,... (none for -name=), or defaultValues if it wasn't given
+	 */
+	String[] strings(String name, String[] defaultValues){
+		String value = string(name, null);
+		if (value == null) return defaultValues;
+		return value.isEmpty() ? new String[0] : value.split(",");
+	}
+
+	int integer(String name, int defaultValue){
+		String value = string(name, null);
+		return (value == null) ? defaultValue : Integer.parseInt(value);
+	}
+
+	float floating(String name, float defaultValue){
+		String value = string(name, null);
+		return (value == null) ? defaultValue : Float.parseFloat(value);
+	}
+
+	int[] ints(String name, int[] defaultValues){
+		String[] values = strings(name, null);
+		if (values == null) return defaultValues;
+		int[] ints = new int[values.length];
+		for (int i = 0; i < values.length; i++) ints[i] = Integer.parseInt(values[i]);
+		return ints;
+	}
+
+	float[] floats(String name, float[] defaultValues){
+		String[] values = strings(name, null);
+		if (values == null) return defaultValues;
+		float[] floats = new float[values.length];
+		for (int i = 0; i < values.length; i++) floats[i] = Float.parseFloat(values[i]);
+		return floats;
+	}
+
+	/**
+	 * @return the layout given by -layout=<layout>, in any case, or defaultLayout if it wasn't given
+	 */
+	TopologyGenerator.Layout layout(TopologyGenerator.Layout defaultLayout){
+		String value = string("-layout", null);
+		return (value == null) ? defaultLayout : TopologyGenerator.Layout.valueOf(value.toUpperCase());
+	}
+
+	/**
+	 * @return the layout given by -layout=<layout> on its own, or every layout if it wasn't given
+	 */
+	TopologyGenerator.Layout[] layoutOrAll(){
+		TopologyGenerator.Layout layout = layout(null);
+		return (layout == null) ? TopologyGenerator.Layout.values() : new TopologyGenerator.Layout[] {layout};
+	}
+
+	/**
+	 * @return the layouts given by -layouts=<layout,...>, in any case, or defaultLayouts if it wasn't given
+	 */
+	TopologyGenerator.Layout[] layouts(TopologyGenerator.Layout[] defaultLayouts){
+		String[] values = strings("-layouts", null);
+		if (values == null) return defaultLayouts;
+		TopologyGenerator.Layout[] layouts = new TopologyGenerator.Layout[values.length];
+		for (int i = 0; i < values.length; i++) layouts[i] = TopologyGenerator.Layout.valueOf(values[i].toUpperCase());
+		return layouts;
+	}
+
+	/**
+	 * @return the execution mode given by -mode=<mode>, in any case, or the sequential mode if it wasn't given
+	 */
+	Network.ExecutionMode executionMode(){
+		String value = string("-mode", null);
+		return (value == null) ? Network.ExecutionMode.SEQUENTIAL : Network.ExecutionMode.valueOf(value.toUpperCase());
+	}
+
+	/**
+	 * Exit if any argument isn't an option that has been read.
+	 */
+	void check(){
+		for (int i = 0; i < args.length; i++){
+			if (!used[i]){
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(42);
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import network.Network;
+import network.Node;
+import simulator.FastInputParser;
+import simulator.FileSink;
+import simulator.Log;
+
+/**
+ * Runs the whole simulation for every combination of topology, range and minimum energy in a grid, several at once on
+ * a thread pool, and collects a line of results from each into one report. Every network has its own bus and log, so
+ * the runs don't share any state. Each run logs to its own file in the output directory, and the report is printed and
+ * written there as report.csv, in the order of the grid whichever run finishes first.
+ *
+ * Topologies are input files (-inputs), or networks generated for each layout, size and seed. A generated network is
+ * laid out for TopologyGenerator's default range, so sweeping the range changes how many neighbours each node has.
+ * Without -minimumEnergies, each network keeps the minimum energy of its file (or the generator's).
+ *
+ * For each run the report gives the total length of the MST once it is built (its weight, unless -energyAware is
+ * given), the rounds and messages of the whole run, the nodes that died, and the lifetime: the broadcasts completed
+ * before the first death, or all of them, marked with a '+', if no node died.
+ *
+ * MSTs are built by convergecast, as the broadcast reporting mode does not terminate on most dense networks. What
+ * each network prints is thrown away.
+ *
+ * Usage: ParameterSweep [-inputs=<file,file,...> | [-layouts=<layout,...>] [-sizes=<n,n,...>] [-seeds=<n>]]
+ *                       [-ranges=<r,r,...>] [-minimumEnergies=<e,e,...>] [-broadcasts=<n>] [-threads=<n>]
+ *                       [-output=<dir>] [-eventDriven] [-boruvka] [-incrementalRepair] [-pipeline[=depth]]
+ *                       [-energyAware] [-checkMst]
+ */
+public class ParameterSweep {
+
+	private static final String DEFAULT_OUTPUT = "output/sweep";
+	private static final int DEFAULT_PIPELINE_DEPTH = 8;
+
+	/**
+	 * One point of the grid, and its results once it has run.
+	 */
+	private static class Simulation implements Callable<Simulation> {
+		// Either an input file, or a network to generate
+		String inputPath;
+		TopologyGenerator.Layout layout;
+		int size;
+		long seed;
+		int numBroadcasts;
+		float range;
+		Float minimumEnergy; // null to keep the topology's own
+		String name;
+
+		int numNodes;
+		float networkMinimumEnergy;
+		int mstEdges;
+		double mstLength;
+		int mstPhases;
+		int rounds;
+		long messages;
+		int deaths;
+		String lifetime;
+		int mstCheckFailures;
+		long nanos;
+
+		// The simulator settings, the same for every run
+		Network.ExecutionMode executionMode;
+		Network.MstMode mstMode;
+		Network.WeightMode weightMode;
+		boolean incrementalRepair;
+		int pipelineDepth;
+		boolean checkMst;
+		String outputDir;
+
+		@Override
+		public Simulation call(){
+			long start = System.nanoTime();
+			Network network;
+			if (inputPath != null){
+				network = FastInputParser.buildNetwork(inputPath, range);
+			} else {
+				TopologyGenerator generator = new TopologyGenerator(layout, size);
+				generator.seed = seed;
+				generator.numBroadcasts = numBroadcasts;
+				generator.minEnergy = 200.0f;
+				generator.maxEnergy = 1000.0f;
+				network = generator.build(range);
+			}
+			if (minimumEnergy != null) network.minimumEnergy = minimumEnergy;
+			network.executionMode = executionMode;
+			network.reportMode = Network.ReportMode.CONVERGECAST;
+			network.mstMode = mstMode;
+			network.weightMode = weightMode;
+			network.incrementalRepair = incrementalRepair;
+			network.pipelineDepth = pipelineDepth;
+			network.checkMst = checkMst;
+			network.bus.traceMessages = false;
+			network.log = new Log(new FileSink(outputDir + File.separator + name + ".log"),
+					Log.DEFAULT_QUEUE_CAPACITY);
+			network.log.console = false;
+			try {
+				network.discover();
+				network.buildMst();
+				measureMst(network);
+				network.executeTransmissions();
+			} finally {
+				network.log.close();
+			}
+			nanos = System.nanoTime() - start;
+
+			numNodes = network.nodes.size();
+			networkMinimumEnergy = network.minimumEnergy;
+			mstPhases = network.mstPhases;
+			rounds = network.numRounds;
+			messages = network.bus.numDelivered;
+			deaths = 0;
+			for (int i = 0; i < network.nodes.size(); i++) if (!network.nodes.get(i).isAlive()) deaths++;
+			if (network.broadcastsBeforeDeath.isEmpty()){
+				lifetime = network.broadcastIds.size() + "+";
+			} else {
+				lifetime = Integer.toString(network.broadcastsBeforeDeath.get(0));
+			}
+			mstCheckFailures = network.mstCheckFailures;
+			return this;
+		}
+
+		private void measureMst(Network network){
+			mstEdges = 0;
+			mstLength = 0;
+			for (Node n : network.nodes){
+				for (Node m : n.treeNodes){
+					if (n.index < m.index){
+						mstEdges++;
+						mstLength += n.distanceTo(m);
+					}
+				}
+			}
+		}
+
+		String reportLine(){
+			return String.format(Locale.ROOT, "%s, %d, %s, %s, %d, %.3f, %d, %d, %d, %d, %s, %d, %.1f", name, numNodes,
+					range, networkMinimumEnergy, mstEdges, mstLength, mstPhases, rounds, messages, deaths, lifetime,
+					mstCheckFailures, nanos / 1e6);
+		}
+	}
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		String[] inputs = options.strings("-inputs", null);
+		TopologyGenerator.Layout[] layouts = options.layouts(TopologyGenerator.Layout.values());
+		int[] sizes = options.ints("-sizes", new int[]{100, 1000});
+		int numSeeds = options.integer("-seeds", 1);
+		float[] ranges = options.floats("-ranges", new float[]{10.0f});
+		float[] minimumEnergies = options.floats("-minimumEnergies", null);
+		int numBroadcasts = options.integer("-broadcasts", 50);
+		int numThreads = options.integer("-threads", Runtime.getRuntime().availableProcessors());
+		String outputDir = options.string("-output", DEFAULT_OUTPUT);
+		Network.ExecutionMode executionMode = options.flag("-eventDriven") ? Network.ExecutionMode.EVENT_DRIVEN
+				: Network.ExecutionMode.SEQUENTIAL;
+		Network.MstMode mstMode = options.flag("-boruvka") ? Network.MstMode.BORUVKA : Network.MstMode.GHS;
+		Network.WeightMode weightMode = options.flag("-energyAware") ? Network.WeightMode.ENERGY_AWARE
+				: Network.WeightMode.DISTANCE;
+		boolean incrementalRepair = options.flag("-incrementalRepair");
+		int pipelineDepth = options.flag("-pipeline") ? DEFAULT_PIPELINE_DEPTH : 1;
+		pipelineDepth = options.integer("-pipeline", pipelineDepth);
+		boolean checkMst = options.flag("-checkMst");
+		options.check();
+
+		// One simulation for each topology, to be copied for each range and minimum energy
+		List<Simulation> topologies = new ArrayList<Simulation>();
+		if (inputs != null){
+			for (String input : inputs){
+				Simulation s = new Simulation();
+				s.inputPath = input;
+				s.name = new File(input).getName().replaceFirst("\\.[^.]*$", "");
+				topologies.add(s);
+			}
+		} else {
+			for (TopologyGenerator.Layout layout : layouts){
+				for (int size : sizes){
+					for (int seed = 0; seed < numSeeds; seed++){
+						Simulation s = new Simulation();
+						s.layout = layout;
+						s.size = size;
+						s.seed = seed;
+						s.numBroadcasts = numBroadcasts;
+						s.name = layout.toString().toLowerCase() + "-" + size + "-s" + seed;
+						topologies.add(s);
+					}
+				}
+			}
+		}
+		List<Simulation> grid = new ArrayList<Simulation>();
+		for (Simulation t : topologies){
+			for (float range : ranges){
+				int numEnergies = (minimumEnergies == null) ? 1 : minimumEnergies.length;
+				for (int e = 0; e < numEnergies; e++){
+					Simulation s = new Simulation();
+					s.inputPath = t.inputPath;
+					s.layout = t.layout;
+					s.size = t.size;
+					s.seed = t.seed;
+					s.numBroadcasts = t.numBroadcasts;
+					s.range = range;
+					s.name = t.name + "-r" + range;
+					if (minimumEnergies != null){
+						s.minimumEnergy = minimumEnergies[e];
+						s.name += "-e" + minimumEnergies[e];
+					}
+					s.executionMode = executionMode;
+					s.mstMode = mstMode;
+					s.weightMode = weightMode;
+					s.incrementalRepair = incrementalRepair;
+					s.pipelineDepth = pipelineDepth;
+					s.checkMst = checkMst;
+					s.outputDir = outputDir;
+					grid.add(s);
+				}
+			}
+		}
+
+		String header = "run, nodes, range, minimum energy, mst edges, mst length, mst phases, rounds, messages, deaths, "
+				+ "lifetime, failed MST checks, ms";
+		System.out.println(grid.size() + " simulations on " + numThreads + " threads");
+		System.out.println(header);
+		List<String> report = new ArrayList<String>();
+		int numFailed = 0;
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Simulation>> results = new ArrayList<Future<Simulation>>();
+			for (Simulation s : grid) results.add(executor.submit(s));
+			for (int i = 0; i < results.size(); i++){
+				String line;
+				try {
+					line = results.get(i).get().reportLine();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					line = grid.get(i).name + ", FAILED: " + e.getCause();
+					numFailed++;
+				}
+				report.add(line);
+				System.out.println(line);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.out.printf("%d simulations, %d failed, %.1f s%n", grid.size(), numFailed,
+				(System.nanoTime() - start) / 1e9);
+
+		try {
+			new File(outputDir).mkdirs();
+			BufferedWriter writer = new BufferedWriter(new FileWriter(outputDir + File.separator + "report.csv"));
+			writer.write(header + "\n");
+			for (String line : report) writer.write(line + "\n");
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (numFailed > 0) System.exit(1);
+	}
+}
@@ -0,0 +1,111 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simulator.Log;
+
+/**
+ * Runs the whole simulation (Run, with convergecast reporting) on generated networks in a single process and split
+ * into partitions of worker processes (-partitions), times each, and checks that the log and console output of every
+ * partitioned run are the same as those of the single process. Energy is spread from 200 to 1000, so that some nodes
+ * die and the MST is repaired.
+ *
+ * Each run is a separate JVM started in its own directory under output/partition, so the times include starting the
+ * JVMs. Differences are left there to compare. Partitions only spread the CPU work of stepping the nodes, so this is
+ * the measure of whether they pay off at all.
+ *
+ * Usage: PartitionBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-partitions=<n,n,...>] [-broadcasts=<n>]
+ */
+public class PartitionBenchmark {
+
+	private static final String OUTPUT = "output/partition";
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout layout = options.layout(TopologyGenerator.Layout.UNIFORM);
+		int[] sizes = options.ints("-sizes", new int[]{2000, 10000});
+		int[] partitions = options.ints("-partitions", new int[]{2, 4});
+		int numBroadcasts = options.integer("-broadcasts", 10);
+		options.check();
+
+		int numDifferent = 0;
+		System.out.println("layout, nodes, partitions, ms, same log, same output");
+		for (int size : sizes){
+			TopologyGenerator generator = new TopologyGenerator(layout, size);
+			generator.numBroadcasts = numBroadcasts;
+			generator.minEnergy = 200;
+			generator.maxEnergy = 1000;
+			String name = layout.name().toLowerCase() + "_" + size;
+			File input = new File(OUTPUT, name + ".txt").getAbsoluteFile();
+			try {
+				input.getParentFile().mkdirs();
+				generator.write(input.getPath());
+				File single = new File(OUTPUT, name + "/1");
+				long ms = run(input, generator.range, 1, single);
+				System.out.printf("%s, %d, %d, %d, -, -%n", layout, size, 1, ms);
+				for (int k : partitions){
+					File partitioned = new File(OUTPUT, name + "/" + k);
+					ms = run(input, generator.range, k, partitioned);
+					File log = new File(partitioned, Log.DEFAULT_PATH);
+					boolean sameLog = same(new File(single, Log.DEFAULT_PATH), log);
+					boolean sameOutput = same(new File(single, "stdout.txt"), new File(partitioned, "stdout.txt"));
+					if (!sameLog || !sameOutput) numDifferent++;
+					System.out.printf("%s, %d, %d, %d, %s, %s%n", layout, size, k, ms, sameLog, sameOutput);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(42);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (numDifferent > 0){
+			System.err.println(numDifferent + " partitioned runs differed from the single process");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Run the simulation in a new JVM in the given directory.
+	 * @return the time it took, in milliseconds
+	 */
+	private static long run(File input, float range, int numPartitions, File directory)
+			throws IOException, InterruptedException {
+		directory.mkdirs();
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		// The run's directory is different, so the class path has to be absolute.
+		StringBuilder classPath = new StringBuilder();
+		for (String path : System.getProperty("java.class.path").split(File.pathSeparator)){
+			if (classPath.length() > 0) classPath.append(File.pathSeparator);
+			classPath.append(new File(path).getAbsolutePath());
+		}
+		command.add(classPath.toString());
+		command.add("simulator.Run");
+		command.add(input.getPath());
+		command.add(Float.toString(range));
+		command.add("-convergecast");
+		if (numPartitions > 1) command.add("-partitions=" + numPartitions);
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(directory);
+		builder.redirectOutput(new File(directory, "stdout.txt"));
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		long start = System.nanoTime();
+		int status = builder.start().waitFor();
+		long ms = (System.nanoTime() - start) / 1000000;
+		if (status != 0) System.err.println("Run in " + directory + " exited with status " + status);
+		return ms;
+	}
+
+	private static boolean same(File a, File b) throws IOException {
+		if (!a.exists() || !b.exists()) return false;
+		return Arrays.equals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+	}
+}
@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import network.Network;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Times discover(), buildMst() and executeTransmissions() on generated networks of each layout and size, and reports
+ * the rounds, messages and bytes allocated in each phase. Message tracing, console output and the log are switched
+ * off so that only the simulation itself is measured.
+ *
+ * Each network is first run once to warm up the JIT, then the given number of times. Times are the median of those
+ * runs; the other figures are the same in every run, as the networks are generated from the same seed.
+ *
+ * MSTs are built with convergecast reporting, since the broadcast reporting mode does not terminate on most networks
+ * in which nodes have many neighbours.
+ *
+ * Every round steps every node, and messages cross a line one hop per round, so the time taken on the line layout
+ * grows with the square of its size.
+ *
+ * Usage: PhaseBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-runs=<n>] [-broadcasts=<n>] [-mode=<executionMode>]
+ */
+public class PhaseBenchmark {
+
+	private static final String[] PHASES = {"discover", "buildMst", "executeTransmissions"};
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout[] layouts = options.layoutOrAll();
+		int[] sizes = options.ints("-sizes", new int[]{1000, 10000});
+		int runs = options.integer("-runs", 5);
+		int numBroadcasts = options.integer("-broadcasts", 10);
+		Network.ExecutionMode mode = options.executionMode();
+		options.check();
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		System.out.println("layout, nodes, phase, ms, rounds, messages, bytes allocated");
+		for (TopologyGenerator.Layout layout : layouts){
+			for (int size : sizes){
+				TopologyGenerator generator = new TopologyGenerator(layout, size);
+				generator.numBroadcasts = numBroadcasts;
+
+				long[][] times = new long[PHASES.length][runs];
+				int[] rounds = new int[PHASES.length];
+				long[] messages = new long[PHASES.length];
+				long[] bytes = new long[PHASES.length];
+				for (int run = -1; run < runs; run++){
+					Network network = generator.build();
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = mode;
+					network.bus.traceMessages = false;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					for (int phase = 0; phase < PHASES.length; phase++){
+						int startRounds = network.numRounds;
+						long startMessages = network.bus.numDelivered;
+						long startBytes = threads.getThreadAllocatedBytes(thread);
+						long start = System.nanoTime();
+						switch (phase){
+						case 0: network.discover(); break;
+						case 1: network.buildMst(); break;
+						default: network.executeTransmissions();
+						}
+						long time = System.nanoTime() - start;
+						if (run >= 0){
+							times[phase][run] = time;
+							rounds[phase] = network.numRounds - startRounds;
+							messages[phase] = network.bus.numDelivered - startMessages;
+							bytes[phase] = threads.getThreadAllocatedBytes(thread) - startBytes;
+						}
+					}
+				}
+
+				for (int phase = 0; phase < PHASES.length; phase++){
+					System.out.printf("%s, %d, %s, %.1f, %d, %d, %d%n", layout, size, PHASES[phase],
+							median(times[phase]) / 1e6, rounds[phase], messages[phase], bytes[phase]);
+				}
+			}
+		}
+	}
+
+	private static double median(long[] values){
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int middle = sorted.length / 2;
+		return (sorted.length % 2 == 1) ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+	}
+}
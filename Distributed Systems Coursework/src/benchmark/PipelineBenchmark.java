@@ -0,0 +1,65 @@
+package benchmark;
+
+
+import network.Network;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Compares the throughput of executeTransmissions() with each broadcast run to completion before the next (a pipeline
+ * depth of 1) and with several broadcasts in flight at once. Throughput is in broadcasts per simulated round, leaving
+ * out the rounds spent repairing the MST after node deaths. Every network is also checked with checkMst, to show that
+ * the trees are still repaired correctly.
+ *
+ * MSTs are repaired in the Boruvka mode unless -ghs is given, in which case GHS (by convergecast) is used.
+ *
+ * Usage: PipelineBenchmark [-layout=<layout>] [-sizes=<n,n,...>] [-depths=<n,n,...>] [-broadcasts=<n>] [-ghs]
+ */
+public class PipelineBenchmark {
+
+	public static void main(String[] args){
+		Options options = new Options(args);
+		TopologyGenerator.Layout[] layouts = options.layoutOrAll();
+		int[] sizes = options.ints("-sizes", new int[]{100, 1000});
+		int[] depths = options.ints("-depths", new int[]{1, 2, 4, 8, 16, 32});
+		int numBroadcasts = options.integer("-broadcasts", 200);
+		Network.MstMode mstMode = options.flag("-ghs") ? Network.MstMode.GHS : Network.MstMode.BORUVKA;
+		options.check();
+
+		System.out.println("layout, nodes, depth, broadcast rounds, broadcasts per round, speedup, repair rounds, "
+				+ "deaths, failed MST checks, ms");
+		for (TopologyGenerator.Layout layout : layouts){
+			for (int size : sizes){
+				TopologyGenerator generator = new TopologyGenerator(layout, size);
+				generator.numBroadcasts = numBroadcasts;
+				generator.minEnergy = 200.0f;
+				double serialThroughput = 0;
+				for (int depth : depths){
+					Network network = generator.build();
+					network.pipelineDepth = depth;
+					network.mstMode = mstMode;
+					network.reportMode = Network.ReportMode.CONVERGECAST;
+					network.executionMode = Network.ExecutionMode.EVENT_DRIVEN;
+					network.checkMst = true;
+					network.bus.traceMessages = false;
+					network.log = new Log(new NullSink());
+					network.log.console = false;
+
+					network.discover();
+					network.buildMst();
+					long start = System.nanoTime();
+					network.executeTransmissions();
+					long time = System.nanoTime() - start;
+
+					int broadcastRounds = network.transmissionRounds - network.transmissionRepairRounds;
+					double throughput = (double) numBroadcasts / Math.max(broadcastRounds, 1);
+					if (serialThroughput == 0) serialThroughput = throughput;
+					System.out.printf("%s, %d, %d, %d, %.4f, %.1fx, %d, %d, %d, %.1f%n", layout, size, depth,
+							broadcastRounds, throughput, throughput / serialThroughput,
+							network.transmissionRepairRounds, network.broadcastsBeforeDeath.size(),
+							network.mstCheckFailures, time / 1e6);
+				}
+			}
+		}
+	}
+}
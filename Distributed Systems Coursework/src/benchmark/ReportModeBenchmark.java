@@ -0,0 +1,55 @@
+package benchmark;
+
+
+import network.Network;
+import simulator.InputParser;
+import simulator.Log;
+import simulator.NullSink;
+
+/**
+ * Builds the MST of the same network with each MWOE reporting mode, and compares the number of phases, rounds and
+ * messages each one needs.
+ *
+ * Usage: ReportModeBenchmark [<filepath> <range> | <numNodes>]
+ * With no arguments, 2000 nodes are laid out along a line with random spacing.
+ */
+public class ReportModeBenchmark {
+
+	private static final float LINE_RANGE = 2.5f;
+	private static final float AVERAGE_NEIGHBOURS = 3.0f;
+	private static final long SEED = 42;
+
+	public static void main(String[] args){
+		System.out.println("mode, phases, rounds, messages, ms");
+		for (Network.ReportMode mode : Network.ReportMode.values()){
+			Network network;
+			if (args.length >= 2){
+				network = InputParser.buildNetwork(args[0], Float.parseFloat(args[1]));
+			} else {
+				network = lineNetwork((args.length > 0) ? Integer.parseInt(args[0]) : 2000);
+			}
+			network.reportMode = mode;
+			network.bus.traceMessages = false;
+			network.log = new Log(new NullSink());
+			network.log.console = false;
+
+			network.discover();
+			long start = System.nanoTime();
+			network.buildMst();
+			long time = System.nanoTime() - start;
+
+			System.out.printf("%s, %d, %d, %d, %.1f%n", mode, network.mstPhases, network.mstRounds, network.mstMessages,
+					time / 1e6);
+		}
+	}
+
+	private static Network lineNetwork(int numNodes){
+		TopologyGenerator generator = new TopologyGenerator(TopologyGenerator.Layout.LINE, numNodes);
+		generator.range = LINE_RANGE;
+		generator.averageNeighbours = AVERAGE_NEIGHBOURS;
+		generator.minEnergy = 1000.0f;
+		generator.maxEnergy = 1000.0f;
+		generator.seed = SEED;
+		return generator.build();
+	}
+}
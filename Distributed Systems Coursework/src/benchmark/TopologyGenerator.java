@@ -0,0 +1,171 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+import network.Network;
+
+/**
+ * Generates networks of any size for benchmarks, either as a Network or as an input file that InputParser can read.
+ * The same settings and seed always give the same network, and a network built directly is identical to one parsed
+ * from the generated file.
+ *
+ * Nodes are spread out so that each has about averageNeighbours other nodes in range, whatever the number of nodes:
+ * UNIFORM      uniformly at random over a square.
+ * CLUSTERED    in clusters of about CLUSTER_SIZE nodes, normally distributed around centres spread over a square.
+ * GRID         on a square grid, each node moved by up to a tenth of the spacing so that no two edges weigh the same.
+ * LINE         along the x axis, with random gaps. Each node only has a few neighbours here, so messages have to travel
+ *              a long way.
+ * Node ids run from 0, energy levels are uniformly distributed between minEnergy and maxEnergy, and the nodes that
+ * broadcast are picked at random.
+ *
+ * Usage: TopologyGenerator <layout> <numNodes> <filepath> [numBroadcasts] [seed]
+ * The file is laid out for the default range.
+ */
+public class TopologyGenerator {
+
+	public enum Layout {
+		UNIFORM, CLUSTERED, GRID, LINE
+	}
+
+	private static final int CLUSTER_SIZE = 100;
+
+	public Layout layout;
+	public int numNodes;
+	public float range = 10.0f;
+	public float averageNeighbours = 8.0f;
+	public float minEnergy = 1000.0f;
+	public float maxEnergy = 1000.0f;
+	public float minimumEnergy = 1.0f;
+	public int numBroadcasts = 0;
+	public long seed = 42;
+
+	private float[] positionX;
+	private float[] positionY;
+	private float[] energy;
+	private int[] broadcasts;
+
+	public TopologyGenerator(Layout layout, int numNodes){
+		this.layout = layout;
+		this.numNodes = numNodes;
+	}
+
+	/**
+	 * Build the network, with every node given the generator's range.
+	 */
+	public Network build(){
+		return build(range);
+	}
+
+	/**
+	 * Build the network laid out for the generator's range, with every node given nodeRange instead. The nodes are in
+	 * the same places whatever nodeRange is, so a larger range gives each node more neighbours.
+	 */
+	public Network build(float nodeRange){
+		generate();
+		Network network = new Network();
+		network.minimumEnergy = minimumEnergy;
+		for (int i = 0; i < numNodes; i++){
+			network.addNode(i, positionX[i], positionY[i], energy[i], nodeRange);
+		}
+		for (int id : broadcasts){
+			network.addBroadcast(id);
+		}
+		return network;
+	}
+
+	/**
+	 * Write the network as an input file. The range is given to Run separately.
+	 */
+	public void write(String filepath) throws IOException {
+		generate();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filepath));
+		writer.write(minimumEnergy + "\n");
+		for (int i = 0; i < numNodes; i++){
+			// Float.toString() gives the shortest text that parses back to the same float.
+			writer.write("node " + i + ", " + positionX[i] + ", " + positionY[i] + ", " + energy[i] + "\n");
+		}
+		for (int id : broadcasts){
+			writer.write("bcst from " + id + "\n");
+		}
+		writer.close();
+	}
+
+	private void generate(){
+		Random random = new Random(seed);
+		positionX = new float[numNodes];
+		positionY = new float[numNodes];
+		// The side of the square that gives each node averageNeighbours nodes in range on average.
+		double side = Math.sqrt(numNodes * Math.PI * range * range / averageNeighbours);
+
+		switch (layout){
+		case UNIFORM:
+			for (int i = 0; i < numNodes; i++){
+				positionX[i] = (float) (random.nextDouble() * side);
+				positionY[i] = (float) (random.nextDouble() * side);
+			}
+			break;
+		case CLUSTERED:
+			int numClusters = Math.max(1, numNodes / CLUSTER_SIZE);
+			double[] centreX = new double[numClusters];
+			double[] centreY = new double[numClusters];
+			for (int c = 0; c < numClusters; c++){
+				centreX[c] = random.nextDouble() * side;
+				centreY[c] = random.nextDouble() * side;
+			}
+			// Most of a cluster lies within two standard deviations of its centre, so this packs each cluster about
+			// as densely as the uniform layout.
+			double spread = Math.sqrt(CLUSTER_SIZE * range * range / averageNeighbours) / 2;
+			for (int i = 0; i < numNodes; i++){
+				int c = random.nextInt(numClusters);
+				positionX[i] = (float) (centreX[c] + random.nextGaussian() * spread);
+				positionY[i] = (float) (centreY[c] + random.nextGaussian() * spread);
+			}
+			break;
+		case GRID:
+			int columns = (int) Math.ceil(Math.sqrt(numNodes));
+			double spacing = side / columns;
+			for (int i = 0; i < numNodes; i++){
+				positionX[i] = (float) ((i % columns + (random.nextDouble() - 0.5) * 0.2) * spacing);
+				positionY[i] = (float) ((i / columns + (random.nextDouble() - 0.5) * 0.2) * spacing);
+			}
+			break;
+		default:
+			// Gaps of between one and two units, where averageNeighbours nodes fit in the range on both sides.
+			double unit = 2 * range / (1.5 * averageNeighbours);
+			double x = 0;
+			for (int i = 0; i < numNodes; i++){
+				x += (1 + random.nextDouble()) * unit;
+				positionX[i] = (float) x;
+				positionY[i] = 0.0f;
+			}
+		}
+
+		energy = new float[numNodes];
+		for (int i = 0; i < numNodes; i++){
+			energy[i] = minEnergy + random.nextFloat() * (maxEnergy - minEnergy);
+		}
+		broadcasts = new int[numBroadcasts];
+		for (int i = 0; i < numBroadcasts; i++){
+			broadcasts[i] = random.nextInt(numNodes);
+		}
+	}
+
+	public static void main(String[] args){
+		if (args.length < 3){
+			System.err.println("Please provide: <layout> <numNodes> <filepath> [numBroadcasts] [seed]");
+			System.exit(42);
+		}
+		TopologyGenerator generator = new TopologyGenerator(Layout.valueOf(args[0].toUpperCase()),
+				Integer.parseInt(args[1]));
+		if (args.length > 3) generator.numBroadcasts = Integer.parseInt(args[3]);
+		if (args.length > 4) generator.seed = Long.parseLong(args[4]);
+		try {
+			generator.write(args[2]);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
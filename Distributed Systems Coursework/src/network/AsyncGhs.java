@@ -0,0 +1,488 @@
+package network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the MST with the asynchronous GHS algorithm (Gallager, Humblet and Spira, 1983) instead of in synchronous
+ * rounds. Every alive node is an actor with its own mailbox, which handles its messages one at a time, as they arrive,
+ * on the network's fork-join pool. An actor is only given to the pool when a message arrives in its empty mailbox, so
+ * nodes with nothing to do cost nothing.
+ *
+ * Fragments have levels, and are named by their core edge. A fragment absorbs a lower level fragment that connects to
+ * it, and two fragments of the same level that choose the same edge merge into one of the next level, with that edge
+ * as its core. A node defers (keeps, and handles again once its own state has changed) a TEST from a higher level
+ * fragment than its own, a CONNECT over an edge it hasn't chosen from a fragment of its own level or higher, and a
+ * REPORT from its core neighbour while it is still finding its own. Edges of equal weight are ordered by the indices of
+ * their ends, as in BoruvkaMst, so the tree is always the same.
+ *
+ * Messages don't go through the bus, and take no rounds. The number of messages is counted, and so is the longest
+ * chain of messages each caused by the one before, which is how many rounds the build would have taken if every
+ * message took one round to arrive.
+ *
+ * The whole tree is built again over the alive nodes each time. Each fragment is then led by its node with the highest
+ * id, and the log gets a bs line with every alive node, the edges added, and the leaders elected.
+ */
+class AsyncGhs {
+
+	// Node states
+	private static final int SLEEPING = 0;
+	private static final int FIND = 1;
+	private static final int FOUND = 2;
+
+	// Message types
+	private static final int WAKEUP = 0;
+	private static final int CONNECT = 1;
+	private static final int INITIATE = 2;
+	private static final int TEST = 3;
+	private static final int ACCEPT = 4;
+	private static final int REJECT = 5;
+	private static final int REPORT = 6;
+	private static final int CHANGE_ROOT = 7;
+
+	private static final int BATCH = 64; // Messages an actor handles before giving its thread to another
+
+	long numMessages;
+	int depth; // The longest chain of messages
+
+	private Network network;
+	private List<Node> nodes;
+	private Actor[] actors; // By node index, null for dead nodes
+	private ForkJoinPool pool;
+	private AtomicLong pending; // Messages sent but not handled yet, including deferred ones
+	private AtomicLong sent;
+	private CountDownLatch quiet;
+	private volatile Throwable failure;
+
+	private static class GhsMessage {
+		int type;
+		int sender;
+		int level;
+		int fragmentState;
+		// A fragment's name, or the weight of the lightest outgoing edge reported: an edge weight and its ends' indices
+		float weight;
+		int low;
+		int high;
+		int depth;
+
+		GhsMessage(int type, int sender, int depth){
+			this.type = type;
+			this.sender = sender;
+			this.depth = depth;
+		}
+	}
+
+	AsyncGhs(Network network){
+		this.network = network;
+		this.nodes = network.nodes;
+		this.actors = new Actor[nodes.size()];
+		this.pending = new AtomicLong();
+		this.sent = new AtomicLong();
+	}
+
+	/**
+	 * @return the number of fragment levels, which are GHS's phases
+	 */
+	int run(){
+		List<Node> previous = new ArrayList<Node>();
+		for (Node n : nodes){
+			n.treeNodes.clear();
+			n.candidateEdges.clear();
+			n.isRepairing = false;
+			n.setLeader(n.isAlive());
+			n.setLeaderId(n.nodeId);
+			if (n.isAlive()){
+				if (n.sortedNeighbours == null) n.buildAdjacency();
+				actors[n.index] = new Actor(n);
+				previous.add(n);
+			}
+		}
+		if (!previous.isEmpty()) network.log.writeBs(previous);
+
+		// Every node with an edge wakes up on its own.
+		List<Actor> woken = new ArrayList<Actor>();
+		for (Actor a : actors) if (a != null && a.edges.length > 0) woken.add(a);
+		if (!woken.isEmpty()){
+			pool = network.pool();
+			quiet = new CountDownLatch(1);
+			pending.addAndGet(woken.size());
+			for (Actor a : woken) a.deliver(new GhsMessage(WAKEUP, a.node.index, 0));
+			try {
+				quiet.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			if (failure != null) throw new RuntimeException(failure);
+		}
+		numMessages = sent.get();
+
+		int maxLevel = 0;
+		UnionFind fragments = new UnionFind(nodes.size());
+		for (Actor a : actors){
+			if (a == null) continue;
+			if (!a.deferred.isEmpty()) throw new IllegalStateException(a.node + " still has deferred messages");
+			maxLevel = Math.max(maxLevel, a.level);
+			depth = Math.max(depth, a.depth);
+			Node n = a.node;
+			for (int e = 0; e < a.edges.length; e++){
+				if (a.states[e] != Node.BRANCH) continue;
+				Node m = nodes.get(a.edges[e]);
+				n.treeNodes.add(m);
+				fragments.union(n.index, m.index);
+				if (n.index < m.index) network.log.writeEdge(new Edge(n, m, a.weights[e]));
+			}
+		}
+
+		// The node with the highest id leads each fragment.
+		int[] leaderOf = new int[nodes.size()];
+		Arrays.fill(leaderOf, -1);
+		for (Node n : previous){
+			int root = fragments.find(n.index);
+			if (leaderOf[root] < 0 || n.nodeId > nodes.get(leaderOf[root]).nodeId) leaderOf[root] = n.index;
+		}
+		network.leaders.clear();
+		List<Node> replaced = new ArrayList<Node>();
+		for (Node n : previous){
+			Node leader = nodes.get(leaderOf[fragments.find(n.index)]);
+			n.setLeaderId(leader.nodeId);
+			n.setLeader(n == leader);
+			if (n.isLeader()){
+				network.leaders.add(n);
+			} else {
+				replaced.add(n);
+			}
+		}
+		network.log.writeElected(replaced);
+		return maxLevel + 1;
+	}
+
+	/**
+	 * @return true if edge (low, high) of the given weight is lighter than edge (otherLow, otherHigh)
+	 */
+	private static boolean lighter(float weight, int low, int high, float otherWeight, int otherLow, int otherHigh){
+		if (weight != otherWeight) return weight < otherWeight;
+		if (low != otherLow) return low < otherLow;
+		return high < otherHigh;
+	}
+
+	/**
+	 * A node, as it takes part in GHS. Only one thread runs an actor at a time.
+	 */
+	private class Actor implements Runnable {
+
+		Node node;
+		// Edges to alive neighbours, lightest first: the neighbour's index, the weight and the edge's GHS state
+		int[] edges;
+		float[] weights;
+		byte[] states;
+		// The neighbours' indices in order, and the position of the edge to each, to find the edge a message came over
+		private int[] neighbours;
+		private int[] edgeTo;
+
+		int state = SLEEPING;
+		int level;
+		private float fragmentWeight = -1; // Not the name of any fragment
+		private int fragmentLow = -1;
+		private int fragmentHigh = -1;
+		private int inBranch = -1; // The edge towards the core
+		private int bestEdge = -1;
+		private float bestWeight;
+		private int bestLow;
+		private int bestHigh;
+		private int testEdge = -1;
+		private int findCount;
+		int depth; // Of the longest chain of messages that led to this node's latest
+
+		private ConcurrentLinkedQueue<GhsMessage> mailbox = new ConcurrentLinkedQueue<GhsMessage>();
+		private AtomicBoolean scheduled = new AtomicBoolean();
+		ArrayDeque<GhsMessage> deferred = new ArrayDeque<GhsMessage>();
+
+		Actor(Node node){
+			this.node = node;
+			// Sort by weight, then by the neighbour's index, which orders edges of equal weight as lighter() does.
+			int degree = 0;
+			long[] keys = new long[node.sortedNeighbours.length];
+			for (int k = 0; k < node.sortedNeighbours.length; k++){
+				int j = node.sortedNeighbours[k];
+				if (!nodes.get(j).isAlive()) continue;
+				keys[degree++] = ((long) Float.floatToIntBits(node.sortedWeights[k]) << 32) | j;
+			}
+			Arrays.sort(keys, 0, degree);
+			edges = new int[degree];
+			weights = new float[degree];
+			states = new byte[degree];
+			neighbours = new int[degree];
+			keys = Arrays.copyOf(keys, degree);
+			for (int e = 0; e < degree; e++){
+				edges[e] = (int) keys[e];
+				weights[e] = Float.intBitsToFloat((int) (keys[e] >>> 32));
+				keys[e] = ((long) edges[e] << 32) | e;
+			}
+			Arrays.sort(keys);
+			edgeTo = new int[degree];
+			for (int k = 0; k < degree; k++){
+				neighbours[k] = (int) (keys[k] >>> 32);
+				edgeTo[k] = (int) keys[k];
+			}
+		}
+
+		/**
+		 * Put a message in the mailbox, and give the actor to the pool unless it is already there.
+		 */
+		void deliver(GhsMessage m){
+			mailbox.add(m);
+			if (scheduled.compareAndSet(false, true)) pool.execute(this);
+		}
+
+		@Override
+		public void run(){
+			try {
+				for (int i = 0; i < BATCH; i++){
+					GhsMessage m = mailbox.poll();
+					if (m == null) break;
+					receive(m);
+				}
+			} catch (Throwable t) {
+				failure = t;
+				quiet.countDown();
+				return;
+			}
+			scheduled.set(false);
+			// A message may have arrived after the last poll, but before the flag was cleared.
+			if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) pool.execute(this);
+		}
+
+		private void receive(GhsMessage m){
+			depth = Math.max(depth, m.depth);
+			if (!handle(m)){
+				deferred.add(m);
+				return;
+			}
+			handled();
+			// Our state has changed, so deferred messages may be handled now, which may change it again.
+			boolean progress = true;
+			while (progress && !deferred.isEmpty()){
+				progress = false;
+				for (int k = deferred.size(); k > 0; k--){
+					GhsMessage d = deferred.poll();
+					if (handle(d)){
+						handled();
+						progress = true;
+					} else {
+						deferred.add(d);
+					}
+				}
+			}
+		}
+
+		private void handled(){
+			if (pending.decrementAndGet() == 0) quiet.countDown();
+		}
+
+		private void send(int edge, GhsMessage m){
+			pending.incrementAndGet();
+			sent.incrementAndGet();
+			actors[edges[edge]].deliver(m);
+		}
+
+		private GhsMessage message(int type){
+			return new GhsMessage(type, node.index, depth + 1);
+		}
+
+		private int edgeFrom(int sender){
+			return edgeTo[Arrays.binarySearch(neighbours, sender)];
+		}
+
+		private int low(int edge){
+			return Math.min(node.index, edges[edge]);
+		}
+
+		private int high(int edge){
+			return Math.max(node.index, edges[edge]);
+		}
+
+		/**
+		 * @return false if the message has to wait until our state changes
+		 */
+		private boolean handle(GhsMessage m){
+			if (m.type == WAKEUP){
+				if (state == SLEEPING) wakeUp();
+				return true;
+			}
+			int j = edgeFrom(m.sender);
+			switch (m.type){
+			case CONNECT:
+				if (state == SLEEPING) wakeUp();
+				if (m.level < level){
+					// Absorb the lower level fragment.
+					states[j] = Node.BRANCH;
+					GhsMessage initiate = message(INITIATE);
+					initiate.level = level;
+					initiate.weight = fragmentWeight;
+					initiate.low = fragmentLow;
+					initiate.high = fragmentHigh;
+					initiate.fragmentState = state;
+					send(j, initiate);
+					if (state == FIND) findCount++;
+				} else if (states[j] == Node.BASIC){
+					return false;
+				} else {
+					// Both fragments chose this edge: merge into a fragment of the next level, with it as the core.
+					GhsMessage initiate = message(INITIATE);
+					initiate.level = level + 1;
+					initiate.weight = weights[j];
+					initiate.low = low(j);
+					initiate.high = high(j);
+					initiate.fragmentState = FIND;
+					send(j, initiate);
+				}
+				return true;
+			case INITIATE:
+				level = m.level;
+				fragmentWeight = m.weight;
+				fragmentLow = m.low;
+				fragmentHigh = m.high;
+				state = m.fragmentState;
+				inBranch = j;
+				bestEdge = -1;
+				bestWeight = Float.POSITIVE_INFINITY;
+				bestLow = Integer.MAX_VALUE;
+				bestHigh = Integer.MAX_VALUE;
+				for (int e = 0; e < edges.length; e++){
+					if (e == j || states[e] != Node.BRANCH) continue;
+					GhsMessage initiate = message(INITIATE);
+					initiate.level = m.level;
+					initiate.weight = m.weight;
+					initiate.low = m.low;
+					initiate.high = m.high;
+					initiate.fragmentState = m.fragmentState;
+					send(e, initiate);
+					if (m.fragmentState == FIND) findCount++;
+				}
+				if (m.fragmentState == FIND) test();
+				return true;
+			case TEST:
+				if (state == SLEEPING) wakeUp();
+				if (m.level > level) return false;
+				if (m.weight != fragmentWeight || m.low != fragmentLow || m.high != fragmentHigh){
+					send(j, message(ACCEPT));
+				} else {
+					if (states[j] == Node.BASIC) states[j] = Node.REJECTED;
+					if (testEdge != j){
+						send(j, message(REJECT));
+					} else {
+						test();
+					}
+				}
+				return true;
+			case ACCEPT:
+				testEdge = -1;
+				if (lighter(weights[j], low(j), high(j), bestWeight, bestLow, bestHigh)){
+					bestEdge = j;
+					bestWeight = weights[j];
+					bestLow = low(j);
+					bestHigh = high(j);
+				}
+				report();
+				return true;
+			case REJECT:
+				if (states[j] == Node.BASIC) states[j] = Node.REJECTED;
+				test();
+				return true;
+			case REPORT:
+				if (j != inBranch){
+					findCount--;
+					if (lighter(m.weight, m.low, m.high, bestWeight, bestLow, bestHigh)){
+						bestEdge = j;
+						bestWeight = m.weight;
+						bestLow = m.low;
+						bestHigh = m.high;
+					}
+					report();
+				} else if (state == FIND){
+					return false;
+				} else if (lighter(bestWeight, bestLow, bestHigh, m.weight, m.low, m.high)){
+					changeRoot();
+				}
+				// Otherwise the other end of the core has the lighter edge, or neither has one and the fragment is
+				// done.
+				return true;
+			case CHANGE_ROOT:
+				changeRoot();
+				return true;
+			default:
+				throw new IllegalStateException("Unknown GHS message " + m.type);
+			}
+		}
+
+		private void wakeUp(){
+			// The lightest edge is always in the MST.
+			states[0] = Node.BRANCH;
+			level = 0;
+			state = FOUND;
+			findCount = 0;
+			GhsMessage connect = message(CONNECT);
+			connect.level = 0;
+			send(0, connect);
+		}
+
+		/**
+		 * Test our lightest basic edge, or report if there isn't one.
+		 */
+		private void test(){
+			testEdge = -1;
+			for (int e = 0; e < edges.length; e++){
+				if (states[e] == Node.BASIC){
+					testEdge = e;
+					break;
+				}
+			}
+			if (testEdge >= 0){
+				GhsMessage test = message(TEST);
+				test.level = level;
+				test.weight = fragmentWeight;
+				test.low = fragmentLow;
+				test.high = fragmentHigh;
+				send(testEdge, test);
+			} else {
+				report();
+			}
+		}
+
+		/**
+		 * Once our test and all our children's reports are in, report the lightest outgoing edge towards the core.
+		 */
+		private void report(){
+			if (findCount == 0 && testEdge < 0){
+				state = FOUND;
+				GhsMessage report = message(REPORT);
+				report.weight = bestWeight;
+				report.low = bestLow;
+				report.high = bestHigh;
+				send(inBranch, report);
+			}
+		}
+
+		/**
+		 * Pass the right to connect along the path to the fragment's lightest outgoing edge, and connect over it.
+		 */
+		private void changeRoot(){
+			if (states[bestEdge] == Node.BRANCH){
+				send(bestEdge, message(CHANGE_ROOT));
+			} else {
+				GhsMessage connect = message(CONNECT);
+				connect.level = level;
+				send(bestEdge, connect);
+				states[bestEdge] = Node.BRANCH;
+			}
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the MST without passing messages, by merging fragments in phases as GHS does, but computing each phase
+ * directly. In each phase every node finds its lightest edge to another fragment, in parallel over ranges of nodes,
+ * each fragment takes the lightest of its nodes' edges, and the fragments are merged with a union-find structure
+ * rather than by flooding LEADER_CHANGE through their trees.
+ *
+ * Fragments are the trees the alive nodes already have, so the same method builds the MST from scratch and repairs it
+ * after node deaths. Edges of equal weight are ordered as in ReferenceMst, so the result is always the same tree
+ * (the MST itself, when no weights are equal). Each fragment is led by its node with the highest id. The log gets the
+ * same kind of bs, added and elected lines as for GHS. An added line starts with the node whose fragment chose the
+ * edge, as GHS's starts with the node that sent CONNECT. When both fragments chose it, it starts with the end whose
+ * CONNECT GHS handles first: the one nearer its leader, or the higher index one if they are as near. That assumes
+ * GHS's phases and trees are the same as here, and no message latency.
+ */
+class BoruvkaMst {
+
+	// Don't split the nodes into ranges smaller than this, or scheduling costs more than the search.
+	private static final int MIN_NODES_PER_TASK = 4096;
+
+	private Network network;
+	private List<Node> nodes;
+	private UnionFind fragments;
+	private int[] fragment;       // The root of each node's fragment, as of the start of the phase
+	private int[] candidate;      // Each node's lightest edge to another fragment: the other end, or -1 if none
+	private float[] candidateWeight;
+
+	BoruvkaMst(Network network){
+		this.network = network;
+		this.nodes = network.nodes;
+		int n = nodes.size();
+		this.fragments = new UnionFind(n);
+		this.fragment = new int[n];
+		this.candidate = new int[n];
+		this.candidateWeight = new float[n];
+	}
+
+	/**
+	 * @return the number of phases
+	 */
+	int run(){
+		for (Node n : nodes){
+			if (!n.isAlive()) continue;
+			for (Node m : n.treeNodes) if (m.isAlive()) fragments.union(n.index, m.index);
+		}
+		List<Node> leaders = electLeaders();
+
+		int phases = 0;
+		int[] best = new int[nodes.size()]; // The node with the lightest edge out of each fragment, by root
+		while (true){
+			phases++;
+			if (!leaders.isEmpty()) network.log.writeBs(leaders);
+			for (int i = 0; i < nodes.size(); i++) fragment[i] = fragments.find(i);
+			findCandidates();
+
+			Arrays.fill(best, -1);
+			int numEdges = 0;
+			for (int i = 0; i < nodes.size(); i++){
+				if (candidate[i] < 0) continue;
+				int root = fragment[i];
+				if (best[root] < 0){
+					numEdges++;
+					best[root] = i;
+				} else if (lighter(i, candidate[i], candidateWeight[i], best[root])){
+					best[root] = i;
+				}
+			}
+			if (numEdges == 0) break;
+
+			for (int root = 0; root < nodes.size(); root++){
+				int i = best[root];
+				if (i < 0) continue;
+				int j = candidate[i];
+				// Two fragments can pick the same edge. Since edges are totally ordered, no other cycles can form.
+				if (fragments.union(i, j)){
+					Node a = nodes.get(i);
+					Node b = nodes.get(j);
+					a.treeNodes.add(b);
+					b.treeNodes.add(a);
+					// When both fragments chose the edge, both ends send CONNECT in GHS, each once SELECTED_MWOE has
+					// come down the tree from its leader, and the one sent first is handled first. If both arrive in
+					// the same round, the lower index node handles its one first.
+					boolean mutual = (candidate[j] == i && best[fragment[j]] == j);
+					if (mutual){
+						int depthA = depth(i);
+						int depthB = depth(j);
+						if (depthB < depthA || (depthB == depthA && j > i)){
+							Node swap = a;
+							a = b;
+							b = swap;
+						}
+					}
+					network.log.writeEdge(new Edge(a, b, candidateWeight[i]));
+				}
+			}
+
+			List<Node> previous = leaders;
+			leaders = electLeaders();
+			List<Node> replaced = new ArrayList<Node>();
+			for (Node n : previous) if (!n.isLeader()) replaced.add(n);
+			network.log.writeElected(replaced);
+		}
+
+		network.leaders.clear();
+		network.leaders.addAll(leaders);
+		return phases;
+	}
+
+	/**
+	 * @return how many tree edges node i is from its fragment's leader, in the fragments as of the start of the phase
+	 */
+	private int depth(int i){
+		List<Node> level = new ArrayList<Node>();
+		List<Node> parents = new ArrayList<Node>();
+		level.add(nodes.get(i));
+		parents.add(null);
+		for (int depth = 0; ; depth++){
+			List<Node> nextLevel = new ArrayList<Node>();
+			List<Node> nextParents = new ArrayList<Node>();
+			for (int k = 0; k < level.size(); k++){
+				Node n = level.get(k);
+				if (n.isLeader()) return depth;
+				for (Node m : n.treeNodes){
+					// Edges added earlier in this phase lead out of the fragment.
+					if (m == parents.get(k) || !m.isAlive() || fragment[m.index] != fragment[i]) continue;
+					nextLevel.add(m);
+					nextParents.add(n);
+				}
+			}
+			level = nextLevel;
+			parents = nextParents;
+		}
+	}
+
+	/**
+	 * Make the alive node with the highest id in each fragment its leader.
+	 * @return the leaders, in node order
+	 */
+	private List<Node> electLeaders(){
+		int[] leaderOf = new int[nodes.size()]; // The index of each fragment's leader, by root
+		Arrays.fill(leaderOf, -1);
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			if (!n.isAlive()) continue;
+			int root = fragments.find(i);
+			if (leaderOf[root] < 0 || n.nodeId > nodes.get(leaderOf[root]).nodeId) leaderOf[root] = i;
+		}
+		List<Node> leaders = new ArrayList<Node>();
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			n.isRepairing = false;
+			n.candidateEdges.clear();
+			if (!n.isAlive()){
+				n.setLeader(false);
+				continue;
+			}
+			Node leader = nodes.get(leaderOf[fragments.find(i)]);
+			n.setLeaderId(leader.nodeId);
+			n.setLeader(n == leader);
+			if (n.isLeader()) leaders.add(n);
+		}
+		return leaders;
+	}
+
+	private void findCandidates(){
+		int numTasks = Math.max(1, Math.min(network.numThreads * 4, nodes.size() / MIN_NODES_PER_TASK));
+		if (numTasks == 1){
+			findCandidates(0, nodes.size());
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < numTasks; t++){
+			final int from = (int) ((long) nodes.size() * t / numTasks);
+			final int to = (int) ((long) nodes.size() * (t + 1) / numTasks);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call(){
+					findCandidates(from, to);
+					return null;
+				}
+			});
+		}
+		ForkJoinPool pool = network.pool();
+		for (Future<Void> f : pool.invokeAll(tasks)){
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	// Only reads the fragments as they were at the start of the phase, so ranges can be searched at the same time.
+	private void findCandidates(int from, int to){
+		for (int i = from; i < to; i++){
+			candidate[i] = -1;
+			Node n = nodes.get(i);
+			if (!n.isAlive() || n.sortedNeighbours == null) continue;
+			for (int k = 0; k < n.sortedNeighbours.length; k++){
+				int j = n.sortedNeighbours[k];
+				if (fragment[j] == fragment[i] || !nodes.get(j).isAlive()) continue;
+				if (candidate[i] < 0){
+					candidate[i] = j;
+					candidateWeight[i] = n.sortedWeights[k];
+				} else if (n.sortedWeights[k] > candidateWeight[i]){
+					break;
+				} else if (j < candidate[i]){
+					// Of the edges of equal weight, keep the one to the lowest index.
+					candidate[i] = j;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if edge (i, j) of the given weight is lighter than node k's candidate edge
+	 */
+	private boolean lighter(int i, int j, float weight, int k){
+		if (weight != candidateWeight[k]) return weight < candidateWeight[k];
+		int low = Math.min(i, j);
+		int otherLow = Math.min(k, candidate[k]);
+		if (low != otherLow) return low < otherLow;
+		return Math.max(i, j) < Math.max(k, candidate[k]);
+	}
+}
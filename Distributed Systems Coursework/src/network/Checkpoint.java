@@ -0,0 +1,239 @@
+package network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Saves the whole state of a simulation to a binary file, and restores it, so that a run can carry on from the end of
+ * any phase without repeating the ones before. Everything that affects what happens next is saved: the nodes with
+ * their positions, energy, neighbours and edge weights, their trees and GHS state, the messages waiting in their
+ * inboxes and in flight, and the broadcasts still to come. So are the network's settings, though they can be changed
+ * after restoring.
+ *
+ * The log is not saved: a restored run only logs what happens after the checkpoint.
+ *
+ * The file starts with MAGIC and VERSION, then the phase, the network, the id, position, energy and range of every
+ * node, the rest of each node's state, and finally the message bus. Nodes are referred to by their index.
+ */
+public class Checkpoint {
+
+	public static final int MAGIC = 0x4D535443; // "MSTC"
+	public static final int VERSION = 3;
+
+	/**
+	 * The last phase a network had finished when it was saved.
+	 */
+	public enum Phase {
+		PARSED, DISCOVERED, MST_BUILT, TRANSMITTED
+	}
+
+	public Network network;
+	public Phase phase;
+
+	private Checkpoint(Network network, Phase phase){
+		this.network = network;
+		this.phase = phase;
+	}
+
+	public static void write(Network network, Phase phase, String filepath) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filepath)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(phase.ordinal());
+			writeNetwork(network, out);
+			List<Node> nodes = network.nodes;
+			out.writeInt(nodes.size());
+			for (int i = 0; i < nodes.size(); i++){
+				Node n = nodes.get(i);
+				out.writeInt(n.nodeId);
+				out.writeFloat(n.positionX());
+				out.writeFloat(n.positionY());
+				out.writeFloat(n.energyLevel());
+				out.writeFloat(n.range());
+			}
+			for (int i = 0; i < nodes.size(); i++) writeNode(nodes.get(i), out);
+			network.bus.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public static Checkpoint read(String filepath) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filepath)));
+		try {
+			if (in.readInt() != MAGIC) throw new IOException(filepath + " is not a checkpoint");
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version);
+			Phase phase = Phase.values()[in.readByte()];
+			Network network = new Network();
+			int[] leaders = readNetwork(network, in);
+			int numNodes = in.readInt();
+			// Create every node with its id first, so that nodes can refer to the ones after them. Neighbours and tree
+			// nodes are NodeSets, which tell nodes apart by id.
+			for (int i = 0; i < numNodes; i++){
+				network.addNode(in.readInt(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+			}
+			for (int i = 0; i < numNodes; i++) readNode(network.nodes.get(i), network.nodes, in);
+			network.leaders.clear();
+			for (int index : leaders) network.leaders.add(network.nodes.get(index));
+			network.bus.read(in);
+			return new Checkpoint(network, phase);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeNetwork(Network network, DataOutputStream out) throws IOException {
+		out.writeFloat(network.minimumEnergy);
+		out.writeFloat(network.energyReference);
+		out.writeByte(network.executionMode.ordinal());
+		out.writeFloat(network.latencyPerUnit);
+		out.writeByte(network.reportMode.ordinal());
+		out.writeByte(network.mstMode.ordinal());
+		out.writeByte(network.weightMode.ordinal());
+		out.writeBoolean(network.incrementalRepair);
+		out.writeInt(network.pipelineDepth);
+		out.writeBoolean(network.checkMst);
+		out.writeBoolean(network.classifyEdges);
+		out.writeInt(network.numRounds);
+		out.writeInt(network.mstPhases);
+		out.writeInt(network.mstRounds);
+		out.writeLong(network.mstMessages);
+		out.writeInt(network.mstChecks);
+		out.writeInt(network.mstCheckFailures);
+		out.writeInt(network.broadcastIds.size());
+		for (int id : network.broadcastIds) out.writeInt(id);
+		out.writeInt(network.broadcastsBeforeDeath.size());
+		for (int n : network.broadcastsBeforeDeath) out.writeInt(n);
+		out.writeInt(network.leaders.size());
+		for (Node n : network.leaders) out.writeInt(n.index);
+	}
+
+	/**
+	 * @return the indices of the leaders, which can only be looked up once the nodes have been read
+	 */
+	private static int[] readNetwork(Network network, DataInputStream in) throws IOException {
+		network.minimumEnergy = in.readFloat();
+		network.energyReference = in.readFloat();
+		network.executionMode = Network.ExecutionMode.values()[in.readByte()];
+		network.latencyPerUnit = in.readFloat();
+		network.reportMode = Network.ReportMode.values()[in.readByte()];
+		network.mstMode = Network.MstMode.values()[in.readByte()];
+		network.weightMode = Network.WeightMode.values()[in.readByte()];
+		network.incrementalRepair = in.readBoolean();
+		network.pipelineDepth = in.readInt();
+		network.checkMst = in.readBoolean();
+		network.classifyEdges = in.readBoolean();
+		network.numRounds = in.readInt();
+		network.mstPhases = in.readInt();
+		network.mstRounds = in.readInt();
+		network.mstMessages = in.readLong();
+		network.mstChecks = in.readInt();
+		network.mstCheckFailures = in.readInt();
+		for (int i = in.readInt(); i > 0; i--) network.addBroadcast(in.readInt());
+		for (int i = in.readInt(); i > 0; i--) network.broadcastsBeforeDeath.add(in.readInt());
+		int[] leaders = new int[in.readInt()];
+		for (int i = 0; i < leaders.length; i++) leaders[i] = in.readInt();
+		return leaders;
+	}
+
+	private static void writeNode(Node n, DataOutputStream out) throws IOException {
+		out.writeBoolean(n.isAlive());
+		writeNodes(n.neighbours, out);
+		// The length of the adjacency arrays, or -1 if they haven't been built.
+		out.writeInt((n.sortedNeighbours == null) ? -1 : n.sortedNeighbours.length);
+		if (n.sortedNeighbours != null){
+			for (int k = 0; k < n.sortedNeighbours.length; k++){
+				out.writeInt(n.sortedNeighbours[k]);
+				out.writeFloat(n.sortedWeights[k]);
+				out.writeInt(n.indexedNeighbours[k]);
+				out.writeFloat(n.indexedWeights[k]);
+				out.writeFloat(n.indexedDistances[k]);
+				out.writeByte(n.edgeStates[k]);
+			}
+			out.writeInt(n.nextTest);
+		}
+		writeNodes(n.treeNodes, out);
+		out.writeInt(n.leaderId());
+		out.writeBoolean(n.isLeader());
+		out.writeInt(n.candidateEdges.size());
+		for (Edge e : n.candidateEdges) writeEdge(e, out);
+		out.writeFloat(n.mwoeWeight);
+		writeEdge(n.mwoe, out);
+		out.writeInt(n.numEdgesWaitingFor);
+		out.writeInt((n.parent == null) ? -1 : n.parent.index);
+		out.writeInt(n.numReportsWaitingFor);
+		out.writeBoolean(n.isRepairing);
+		out.writeInt(n.repairRound);
+		out.writeInt(n.messageQueue.size());
+		for (int i = 0; i < n.messageQueue.size(); i++) out.writeInt(n.messageQueue.get(i));
+	}
+
+	private static void readNode(Node n, List<Node> nodes, DataInputStream in) throws IOException {
+		n.setAlive(in.readBoolean());
+		readNodes(n.neighbours, nodes, in);
+		int degree = in.readInt();
+		if (degree >= 0){
+			n.sortedNeighbours = new int[degree];
+			n.sortedWeights = new float[degree];
+			n.indexedNeighbours = new int[degree];
+			n.indexedWeights = new float[degree];
+			n.indexedDistances = new float[degree];
+			n.edgeStates = new byte[degree];
+			for (int k = 0; k < degree; k++){
+				n.sortedNeighbours[k] = in.readInt();
+				n.sortedWeights[k] = in.readFloat();
+				n.indexedNeighbours[k] = in.readInt();
+				n.indexedWeights[k] = in.readFloat();
+				n.indexedDistances[k] = in.readFloat();
+				n.edgeStates[k] = in.readByte();
+			}
+			n.nextTest = in.readInt();
+		}
+		readNodes(n.treeNodes, nodes, in);
+		n.setLeaderId(in.readInt());
+		n.setLeader(in.readBoolean());
+		for (int i = in.readInt(); i > 0; i--) n.candidateEdges.add(readEdge(nodes, in));
+		n.mwoeWeight = in.readFloat();
+		n.mwoe = readEdge(nodes, in);
+		n.numEdgesWaitingFor = in.readInt();
+		int parent = in.readInt();
+		n.parent = (parent < 0) ? null : nodes.get(parent);
+		n.numReportsWaitingFor = in.readInt();
+		n.isRepairing = in.readBoolean();
+		n.repairRound = in.readInt();
+		for (int i = in.readInt(); i > 0; i--) n.messageQueue.add(in.readInt());
+	}
+
+	private static void writeNodes(List<Node> list, DataOutputStream out) throws IOException {
+		out.writeInt(list.size());
+		for (int i = 0; i < list.size(); i++) out.writeInt(list.get(i).index);
+	}
+
+	private static void readNodes(List<Node> list, List<Node> nodes, DataInputStream in) throws IOException {
+		for (int i = in.readInt(); i > 0; i--) list.add(nodes.get(in.readInt()));
+	}
+
+	private static void writeEdge(Edge e, DataOutputStream out) throws IOException {
+		if (e == null){
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(e.left.index);
+		out.writeInt(e.right.index);
+		out.writeFloat(e.weight);
+	}
+
+	private static Edge readEdge(List<Node> nodes, DataInputStream in) throws IOException {
+		int left = in.readInt();
+		if (left < 0) return null;
+		return new Edge(nodes.get(left), nodes.get(in.readInt()), in.readFloat());
+	}
+}
@@ -12,7 +12,7 @@ public class Edge {
 	}
 	
 	public Edge(Node leftNode, Node rightNode){
-		this(leftNode, rightNode, Network.distanceBetweenNodes(leftNode, rightNode));
+		this(leftNode, rightNode, leftNode.weightTo(rightNode));
 	}
 	
 	public static Edge smallerOf(Edge e, Edge f){
@@ -40,6 +40,13 @@ public class Edge {
         }
 	}
 	
+	// Symmetric, to agree with equals(). A node's hash code is its id, so the ids are spread out first, or edges between
+	// nodes with nearby ids would collide.
+	@Override
+	public int hashCode() {
+		return (left.hashCode() * 0x9E3779B9) ^ (right.hashCode() * 0x9E3779B9);
+	}
+	
 	@Override
 	public String toString() {
 		return this.left.toString() + " -> " + this.right.toString() + " (" + this.weight + ")";
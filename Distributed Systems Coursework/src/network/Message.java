@@ -18,6 +18,12 @@ public class Message {
 	public Node receiver;
 	public Edge edge; // Used in reporting MWOEs
 	public int leaderId; // Used in leader change events
+	public int broadcastId; // Which broadcast a data message belongs to, or -1
+	public int repairRound; // The round an emergency leader was declared in, or -1
+	
+	public Message(){
+		this(null, null, null, null, -1);
+	}
 	
 	public Message(Node sender, Node receiver, Type type, Edge edge, int leaderId){
 		this.sender = sender;
@@ -25,6 +31,8 @@ public class Message {
 		this.type = type;
 		this.edge = edge;
 		this.leaderId = leaderId;
+		this.broadcastId = -1;
+		this.repairRound = -1;
 	}
 	
 	public Message(Node sender, Node receiver, Type type){
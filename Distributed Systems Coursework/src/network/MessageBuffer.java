@@ -0,0 +1,181 @@
+package network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable buffer of messages stored as parallel primitive arrays, one entry per field, rather than as Message
+ * objects. Nodes are stored by their index in the network's node list, and an edge by the indices of its endpoints
+ * and its weight (-1 endpoints mean no edge).
+ *
+ * The buffer is cleared and refilled every round, so once it has grown to the size of the busiest round, sending and
+ * delivering messages does not allocate at all.
+ */
+public class MessageBuffer {
+
+	private static final Message.Type[] TYPES = Message.Type.values();
+
+	private int size;
+	private byte[] type;
+	private int[] sender;
+	private int[] receiver;
+	private int[] edgeLeft;
+	private int[] edgeRight;
+	private float[] edgeWeight;
+	private int[] leaderId;
+	private int[] broadcastId;
+	private int[] repairRound;
+
+	public MessageBuffer(){
+		this(64);
+	}
+
+	public MessageBuffer(int capacity){
+		this.size = 0;
+		this.type = new byte[capacity];
+		this.sender = new int[capacity];
+		this.receiver = new int[capacity];
+		this.edgeLeft = new int[capacity];
+		this.edgeRight = new int[capacity];
+		this.edgeWeight = new float[capacity];
+		this.leaderId = new int[capacity];
+		this.broadcastId = new int[capacity];
+		this.repairRound = new int[capacity];
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * @return the slot the message was stored in
+	 */
+	public int add(Message.Type t, int from, int to, Edge e, int leader){
+		return add(t, from, to, e, leader, -1, -1);
+	}
+
+	public int add(Message.Type t, int from, int to, Edge e, int leader, int broadcast, int round){
+		if (e == null){
+			return add(t, from, to, -1, -1, 0, leader, broadcast, round);
+		} else {
+			return add(t, from, to, e.left.index, e.right.index, e.weight, leader, broadcast, round);
+		}
+	}
+
+	public int add(Message.Type t, int from, int to, int left, int right, float weight, int leader, int broadcast,
+			int round){
+		if (size == type.length){
+			grow();
+		}
+		type[size] = (byte) t.ordinal();
+		sender[size] = from;
+		receiver[size] = to;
+		edgeLeft[size] = left;
+		edgeRight[size] = right;
+		edgeWeight[size] = weight;
+		leaderId[size] = leader;
+		broadcastId[size] = broadcast;
+		repairRound[size] = round;
+		return size++;
+	}
+
+	/**
+	 * Append the message in the given slot of another buffer.
+	 */
+	public int addFrom(MessageBuffer other, int slot){
+		return add(other.type(slot), other.sender[slot], other.receiver[slot], other.edgeLeft[slot],
+				other.edgeRight[slot], other.edgeWeight[slot], other.leaderId[slot], other.broadcastId[slot],
+				other.repairRound[slot]);
+	}
+
+	public Message.Type type(int slot){
+		return TYPES[type[slot]];
+	}
+
+	public int sender(int slot){
+		return sender[slot];
+	}
+
+	public int receiver(int slot){
+		return receiver[slot];
+	}
+
+	public int leaderId(int slot){
+		return leaderId[slot];
+	}
+
+	public int broadcastId(int slot){
+		return broadcastId[slot];
+	}
+
+	/**
+	 * Fill the given message (and its edge, if the message has one) with the contents of a slot, so that a message
+	 * can be handled without allocating. The edge of the message is set to null if the slot has no edge.
+	 */
+	public void read(int slot, List<Node> nodes, Message m, Edge edge){
+		m.type = TYPES[type[slot]];
+		m.sender = nodes.get(sender[slot]);
+		m.receiver = nodes.get(receiver[slot]);
+		m.leaderId = leaderId[slot];
+		m.broadcastId = broadcastId[slot];
+		m.repairRound = repairRound[slot];
+		if (edgeLeft[slot] < 0){
+			m.edge = null;
+		} else {
+			edge.left = nodes.get(edgeLeft[slot]);
+			edge.right = nodes.get(edgeRight[slot]);
+			edge.weight = edgeWeight[slot];
+			m.edge = edge;
+		}
+	}
+
+	/**
+	 * Write every message in the buffer, for a checkpoint.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++){
+			out.writeByte(type[i]);
+			out.writeInt(sender[i]);
+			out.writeInt(receiver[i]);
+			out.writeInt(edgeLeft[i]);
+			out.writeInt(edgeRight[i]);
+			out.writeFloat(edgeWeight[i]);
+			out.writeInt(leaderId[i]);
+			out.writeInt(broadcastId[i]);
+			out.writeInt(repairRound[i]);
+		}
+	}
+
+	/**
+	 * Replace the contents of the buffer with messages written by write().
+	 */
+	void read(DataInputStream in) throws IOException {
+		clear();
+		int n = in.readInt();
+		for (int i = 0; i < n; i++){
+			add(TYPES[in.readByte()], in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readFloat(),
+					in.readInt(), in.readInt(), in.readInt());
+		}
+	}
+
+	private void grow(){
+		int capacity = type.length * 2;
+		type = Arrays.copyOf(type, capacity);
+		sender = Arrays.copyOf(sender, capacity);
+		receiver = Arrays.copyOf(receiver, capacity);
+		edgeLeft = Arrays.copyOf(edgeLeft, capacity);
+		edgeRight = Arrays.copyOf(edgeRight, capacity);
+		edgeWeight = Arrays.copyOf(edgeWeight, capacity);
+		leaderId = Arrays.copyOf(leaderId, capacity);
+		broadcastId = Arrays.copyOf(broadcastId, capacity);
+		repairRound = Arrays.copyOf(repairRound, capacity);
+	}
+}
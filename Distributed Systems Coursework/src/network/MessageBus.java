@@ -0,0 +1,275 @@
+package network;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import simulator.TraceWriter;
+
+/**
+ * Routes messages between the nodes of one network.
+ * Messages sent during a round are buffered in the outbox, and are only delivered into the receivers' inboxes at the
+ * end of the round. The outbox and the buffer of delivered messages form a double buffer: they are swapped at each
+ * delivery, so the messages being handled this round are read from one while the next round's are written to the
+ * other, and both are reused from round to round.
+ *
+ * Messages can also be given a latency that grows with the length of their edge (see deliverAfterLatency()). They
+ * then wait in a calendar of buffers, one for each round up to the longest latency, so that scheduling a message and
+ * finding the next messages due are both cheap.
+ */
+public class MessageBus {
+
+	MessageBuffer outbox;    // Messages sent this round
+	MessageBuffer delivered; // Messages being handled this round. Inboxes refer to these by slot.
+
+	// Used to read messages on the calling thread without allocating.
+	Message cursor;
+	Edge cursorEdge;
+
+	public boolean traceMessages; // Print every message delivered. Off by default, as printing dominates the run time.
+	public TraceWriter trace;     // Record every message delivered in a binary trace, if set
+	public long numDelivered;
+	public long[] numDeliveredByType; // By Message.Type ordinal
+	// Of the last delivery
+	public int numQueued;
+	public int maxQueueDepth;
+
+	// Data messages of each broadcast that have been sent but not handled yet, counted while countBroadcasts is set
+	boolean countBroadcasts;
+	private int[] dataInFlight;
+
+	// The nodes whose inboxes were empty before the last delivery, and now aren't
+	private int[] woken;
+	private int numWoken;
+
+	// Messages in flight, by the round they are due in modulo the length of the calendar
+	private MessageBuffer[] calendar;
+	private long now; // The current round of the calendar
+	private int numScheduled;
+
+	private List<Node> nodes;
+
+	public MessageBus(List<Node> nodes){
+		this.nodes = nodes;
+		this.outbox = new MessageBuffer();
+		this.delivered = new MessageBuffer();
+		this.cursor = new Message();
+		this.cursorEdge = new Edge(null, null, 0);
+		this.traceMessages = false;
+		this.numDelivered = 0;
+		this.numDeliveredByType = new long[Message.Type.values().length];
+		this.woken = new int[16];
+		this.numWoken = 0;
+		this.now = 0;
+		this.numScheduled = 0;
+		this.countBroadcasts = false;
+		this.dataInFlight = new int[16];
+	}
+
+	/**
+	 * @return the number of messages sent since the last delivery
+	 */
+	public int numPending(){
+		return outbox.size();
+	}
+
+	/**
+	 * Read a delivered message into the given message and edge.
+	 */
+	void read(int slot, Message m, Edge edge){
+		delivered.read(slot, nodes, m, edge);
+	}
+
+	/**
+	 * Move every message sent this round into its receiver's inbox.
+	 * Messages from nodes that have died are dropped, except the messages announcing their death. Dead nodes never
+	 * handle their messages, so messages to them are not queued.
+	 */
+	public void deliver(){
+		if (countBroadcasts){
+			countData(delivered, -1);
+			countData(outbox, 1);
+		}
+		MessageBuffer sent = outbox;
+		outbox = delivered;
+		outbox.clear();
+		delivered = sent;
+		enqueueDelivered();
+	}
+
+	/**
+	 * Schedule every message sent this round to arrive after a latency of 1 + (int) (length * latencyPerUnit) rounds,
+	 * where length is the distance between its sender and receiver, then move on to the next round in which
+	 * messages are due and deliver them into the receivers' inboxes. Messages on the same edge arrive in the order they
+	 * were sent. With a latencyPerUnit of 0, this delivers the same messages as deliver().
+	 * @return the number of rounds moved on
+	 */
+	public int deliverAfterLatency(float latencyPerUnit){
+		if (countBroadcasts){
+			countData(delivered, -1);
+			countData(outbox, 1);
+		}
+		for (int slot = 0; slot < outbox.size(); slot++){
+			Node sender = nodes.get(outbox.sender(slot));
+			Node receiver = nodes.get(outbox.receiver(slot));
+			int latency = 1 + (int) (sender.distanceTo(receiver) * latencyPerUnit);
+			if (calendar == null || latency >= calendar.length) growCalendar(latency + 1);
+			calendar[(int) ((now + latency) % calendar.length)].addFrom(outbox, slot);
+			numScheduled++;
+		}
+		outbox.clear();
+
+		int elapsed = 1;
+		if (numScheduled > 0){
+			while (calendar[(int) ((now + elapsed) % calendar.length)].size() == 0) elapsed++;
+		}
+		now += elapsed;
+		delivered.clear();
+		if (calendar != null){
+			int due = (int) (now % calendar.length);
+			MessageBuffer arrived = calendar[due];
+			calendar[due] = delivered;
+			delivered = arrived;
+			numScheduled -= delivered.size();
+		}
+		enqueueDelivered();
+		return elapsed;
+	}
+
+	/**
+	 * @return the number of messages sent but not yet delivered, including those still in flight
+	 */
+	public int numInFlight(){
+		return outbox.size() + numScheduled;
+	}
+
+	/**
+	 * @return the number of data messages of the given broadcast that have been delivered or are in flight, but have
+	 * not been handled yet. Only counted while countBroadcasts is set.
+	 */
+	int numDataInFlight(int broadcastId){
+		return (broadcastId < dataInFlight.length) ? dataInFlight[broadcastId] : 0;
+	}
+
+	/**
+	 * @return the number of messages in the last delivery, including any that were dropped
+	 */
+	public int numLastDelivered(){
+		return delivered.size();
+	}
+
+	/**
+	 * Sort the nodes woken by the last delivery by index.
+	 * @return the number of nodes woken
+	 */
+	public int sortWoken(){
+		Arrays.sort(woken, 0, numWoken);
+		return numWoken;
+	}
+
+	public int woken(int i){
+		return woken[i];
+	}
+
+	/**
+	 * Write the messages in the bus, and its counts, for a checkpoint. The inboxes are written with their nodes.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeLong(numDelivered);
+		for (long n : numDeliveredByType) out.writeLong(n);
+		outbox.write(out);
+		delivered.write(out);
+		out.writeInt(numWoken);
+		for (int i = 0; i < numWoken; i++) out.writeInt(woken[i]);
+		// The calendar from the current round on, so that it can be read back into a calendar of any length.
+		int length = (calendar == null) ? 0 : calendar.length;
+		out.writeInt(length);
+		for (int t = 0; t < length; t++) calendar[(int) ((now + t) % length)].write(out);
+		out.writeLong(now);
+		out.writeInt(dataInFlight.length);
+		for (int n : dataInFlight) out.writeInt(n);
+	}
+
+	/**
+	 * Restore the state written by write().
+	 */
+	void read(DataInputStream in) throws IOException {
+		numDelivered = in.readLong();
+		for (int i = 0; i < numDeliveredByType.length; i++) numDeliveredByType[i] = in.readLong();
+		outbox.read(in);
+		delivered.read(in);
+		numWoken = in.readInt();
+		if (numWoken > woken.length) woken = new int[numWoken];
+		for (int i = 0; i < numWoken; i++) woken[i] = in.readInt();
+		int length = in.readInt();
+		MessageBuffer[] entries = new MessageBuffer[length];
+		numScheduled = 0;
+		for (int t = 0; t < length; t++){
+			entries[t] = new MessageBuffer();
+			entries[t].read(in);
+			numScheduled += entries[t].size();
+		}
+		now = in.readLong();
+		calendar = null;
+		if (length > 0){
+			calendar = new MessageBuffer[length];
+			for (int t = 0; t < length; t++) calendar[(int) ((now + t) % length)] = entries[t];
+		}
+		dataInFlight = new int[in.readInt()];
+		for (int i = 0; i < dataInFlight.length; i++) dataInFlight[i] = in.readInt();
+	}
+
+	private void growCalendar(int length){
+		MessageBuffer[] bigger = new MessageBuffer[Math.max(length, (calendar == null) ? 4 : calendar.length * 2)];
+		for (int t = 0; t < bigger.length; t++){
+			MessageBuffer b = null;
+			if (calendar != null && t < calendar.length){
+				b = calendar[(int) ((now + t) % calendar.length)];
+			}
+			bigger[(int) ((now + t) % bigger.length)] = (b != null) ? b : new MessageBuffer();
+		}
+		calendar = bigger;
+	}
+
+	private void countData(MessageBuffer buffer, int delta){
+		for (int slot = 0; slot < buffer.size(); slot++){
+			int b = buffer.broadcastId(slot);
+			if (b < 0 || buffer.type(slot) != Message.Type.DATA_MESSAGE) continue;
+			if (b >= dataInFlight.length){
+				dataInFlight = Arrays.copyOf(dataInFlight, Math.max(b + 1, dataInFlight.length * 2));
+			}
+			dataInFlight[b] += delta;
+		}
+	}
+
+	private void enqueueDelivered(){
+		numWoken = 0;
+		numQueued = 0;
+		maxQueueDepth = 0;
+		for (int slot = 0; slot < delivered.size(); slot++){
+			Node sender = nodes.get(delivered.sender(slot));
+			Message.Type type = delivered.type(slot);
+			if (sender.isAlive() || type == Message.Type.NODE_DOWN){
+				Node receiver = nodes.get(delivered.receiver(slot));
+				if (receiver.isAlive()){
+					if (receiver.messageQueue.isEmpty()){
+						if (numWoken == woken.length) woken = Arrays.copyOf(woken, numWoken * 2);
+						woken[numWoken++] = receiver.index;
+					}
+					receiver.messageQueue.add(slot);
+					numQueued++;
+					maxQueueDepth = Math.max(maxQueueDepth, receiver.messageQueue.size());
+				}
+				numDelivered++;
+				numDeliveredByType[type.ordinal()]++;
+				if (trace != null) trace.message(type, delivered.sender(slot), delivered.receiver(slot));
+				if (traceMessages){
+					read(slot, cursor, cursorEdge);
+					receiver.network.log.print(cursor.toString());
+				}
+			}
+		}
+	}
+}
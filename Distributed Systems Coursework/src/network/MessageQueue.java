@@ -0,0 +1,65 @@
+package network;
+
+/**
+ * FIFO queue of messages backed by a ring buffer. Messages are referred to by their slot in the message bus's buffer
+ * of delivered messages. A node's inbox is drained every round and refilled at the next delivery, so once the buffer
+ * has grown to the node's busiest round no further allocation takes place.
+ */
+public class MessageQueue {
+
+	private int[] buffer;
+	private int head; // Index of the first message
+	private int size;
+
+	public MessageQueue(){
+		this.buffer = new int[4];
+		this.head = 0;
+		this.size = 0;
+	}
+
+	public void add(int slot){
+		if (size == buffer.length){
+			grow();
+		}
+		buffer[(head + size) & (buffer.length - 1)] = slot;
+		size++;
+	}
+
+	/**
+	 * @return the slot of the first message in the queue, or -1 if the queue is empty
+	 */
+	public int poll(){
+		if (size == 0) return -1;
+		int slot = buffer[head];
+		head = (head + 1) & (buffer.length - 1);
+		size--;
+		return slot;
+	}
+
+	public int get(int i){
+		return buffer[(head + i) & (buffer.length - 1)];
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	public void clear(){
+		head = 0;
+		size = 0;
+	}
+
+	// The capacity is always a power of two, so indices can wrap with a mask.
+	private void grow(){
+		int[] bigger = new int[buffer.length * 2];
+		for (int i = 0; i < size; i++){
+			bigger[i] = get(i);
+		}
+		buffer = bigger;
+		head = 0;
+	}
+}
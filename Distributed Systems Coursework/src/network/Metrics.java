@@ -0,0 +1,249 @@
+package network;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records what happens in each round of a network's simulation, and adds it up for each phase.
+ * Attach one to a network with network.metrics = new Metrics() before running it. Every round then records the number
+ * of messages delivered of each type, the number of nodes alive, how many messages were queued in the inboxes and the
+ * most in any one inbox, the energy the nodes used, and the time spent stepping the nodes and delivering messages.
+ *
+ * Phases are named after the Network method that ran them. A phase run inside another (an MST rebuilt during the
+ * transmissions, say) is counted under its own name only.
+ */
+public class Metrics {
+
+	private static final Message.Type[] TYPES = Message.Type.values();
+
+	public static class Round {
+		public int round;
+		public String phase;
+		public long[] messages; // By Message.Type ordinal
+		public int activeNodes;
+		public int queuedMessages;
+		public int maxQueueDepth;
+		public double energyConsumed;
+		public long timestepNanos;
+		public long deliveryNanos;
+
+		public long totalMessages(){
+			long total = 0;
+			for (long m : messages) total += m;
+			return total;
+		}
+	}
+
+	public static class Phase {
+		public String name;
+		public int rounds;
+		public long[] messages; // By Message.Type ordinal
+		public int maxQueueDepth;
+		public double energyConsumed;
+		public long timestepNanos;
+		public long deliveryNanos;
+
+		private Phase(String name){
+			this.name = name;
+			this.messages = new long[TYPES.length];
+		}
+
+		private Phase(Phase other){
+			this.name = other.name;
+			this.rounds = other.rounds;
+			this.messages = other.messages.clone();
+			this.maxQueueDepth = other.maxQueueDepth;
+			this.energyConsumed = other.energyConsumed;
+			this.timestepNanos = other.timestepNanos;
+			this.deliveryNanos = other.deliveryNanos;
+		}
+
+		public long totalMessages(){
+			long total = 0;
+			for (long m : messages) total += m;
+			return total;
+		}
+	}
+
+	/**
+	 * A copy of the metrics at one point in time, which later rounds don't change.
+	 */
+	public static class Snapshot {
+		public final List<Phase> phases;
+		public final Phase total;
+		public final int activeNodes;
+
+		private Snapshot(List<Phase> phases, Phase total, int activeNodes){
+			this.phases = phases;
+			this.total = total;
+			this.activeNodes = activeNodes;
+		}
+	}
+
+	public boolean recordRounds = true; // Keep every round, as well as the totals for each phase
+	public List<Round> rounds;
+
+	private Map<String, Phase> phases;
+	private String phase;
+	private long[] lastDelivered;
+	private double lastEnergy;
+	private int activeNodes;
+
+	public Metrics(){
+		this.rounds = new ArrayList<Round>();
+		this.phases = new LinkedHashMap<String, Phase>();
+		this.phase = "none";
+		this.lastDelivered = new long[TYPES.length];
+		this.lastEnergy = Double.NaN;
+	}
+
+	/**
+	 * Count the following rounds under the given phase.
+	 * @return the phase before, to be passed to endPhase()
+	 */
+	String startPhase(String name, Network network){
+		if (Double.isNaN(lastEnergy)) lastEnergy = totalEnergy(network.nodes);
+		String previous = phase;
+		phase = name;
+		return previous;
+	}
+
+	void endPhase(String previous){
+		phase = previous;
+	}
+
+	/**
+	 * Record the round the network has just finished.
+	 */
+	void roundDone(Network network, long timestepNanos, long deliveryNanos){
+		Round r = new Round();
+		r.round = network.numRounds;
+		r.phase = phase;
+		r.messages = new long[TYPES.length];
+		long[] delivered = network.bus.numDeliveredByType;
+		for (int i = 0; i < TYPES.length; i++){
+			r.messages[i] = delivered[i] - lastDelivered[i];
+			lastDelivered[i] = delivered[i];
+		}
+		for (int i = 0; i < network.nodes.size(); i++){
+			if (network.nodes.get(i).isAlive()) r.activeNodes++;
+		}
+		activeNodes = r.activeNodes;
+		r.queuedMessages = network.bus.numQueued;
+		r.maxQueueDepth = network.bus.maxQueueDepth;
+		double energy = totalEnergy(network.nodes);
+		r.energyConsumed = lastEnergy - energy;
+		lastEnergy = energy;
+		r.timestepNanos = timestepNanos;
+		r.deliveryNanos = deliveryNanos;
+		if (recordRounds) rounds.add(r);
+
+		Phase p = phases.get(phase);
+		if (p == null){
+			p = new Phase(phase);
+			phases.put(phase, p);
+		}
+		p.rounds++;
+		for (int i = 0; i < TYPES.length; i++) p.messages[i] += r.messages[i];
+		p.maxQueueDepth = Math.max(p.maxQueueDepth, r.maxQueueDepth);
+		p.energyConsumed += r.energyConsumed;
+		p.timestepNanos += timestepNanos;
+		p.deliveryNanos += deliveryNanos;
+	}
+
+	private static double totalEnergy(List<Node> nodes){
+		double total = 0;
+		for (int i = 0; i < nodes.size(); i++) total += nodes.get(i).energyLevel();
+		return total;
+	}
+
+	public Snapshot snapshot(){
+		List<Phase> copies = new ArrayList<Phase>();
+		Phase total = new Phase("total");
+		for (Phase p : phases.values()){
+			copies.add(new Phase(p));
+			total.rounds += p.rounds;
+			for (int i = 0; i < TYPES.length; i++) total.messages[i] += p.messages[i];
+			total.maxQueueDepth = Math.max(total.maxQueueDepth, p.maxQueueDepth);
+			total.energyConsumed += p.energyConsumed;
+			total.timestepNanos += p.timestepNanos;
+			total.deliveryNanos += p.deliveryNanos;
+		}
+		return new Snapshot(copies, total, activeNodes);
+	}
+
+	/**
+	 * Write one line per recorded round.
+	 */
+	public void writeCsv(String filepath){
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(filepath));
+			writer.write("round,phase,messages");
+			for (Message.Type t : TYPES) writer.write("," + t);
+			writer.write(",activeNodes,queuedMessages,maxQueueDepth,energyConsumed,timestepNanos,deliveryNanos\n");
+			for (Round r : rounds){
+				writer.write(r.round + "," + r.phase + "," + r.totalMessages());
+				for (long m : r.messages) writer.write("," + m);
+				writer.write("," + r.activeNodes + "," + r.queuedMessages + "," + r.maxQueueDepth + ","
+						+ r.energyConsumed + "," + r.timestepNanos + "," + r.deliveryNanos + "\n");
+			}
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write the totals for each phase and for the whole run, and every recorded round.
+	 */
+	public void writeJson(String filepath){
+		Snapshot snapshot = snapshot();
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(filepath));
+			writer.write("{\n  \"activeNodes\": " + snapshot.activeNodes + ",\n");
+			writer.write("  \"total\": ");
+			writePhase(writer, snapshot.total);
+			writer.write(",\n  \"phases\": [");
+			for (int i = 0; i < snapshot.phases.size(); i++){
+				writer.write((i == 0) ? "\n    " : ",\n    ");
+				writePhase(writer, snapshot.phases.get(i));
+			}
+			writer.write("\n  ],\n  \"rounds\": [");
+			for (int i = 0; i < rounds.size(); i++){
+				Round r = rounds.get(i);
+				writer.write((i == 0) ? "\n    " : ",\n    ");
+				writer.write("{\"round\": " + r.round + ", \"phase\": \"" + r.phase + "\", \"messages\": ");
+				writeMessages(writer, r.messages);
+				writer.write(", \"activeNodes\": " + r.activeNodes + ", \"queuedMessages\": " + r.queuedMessages
+						+ ", \"maxQueueDepth\": " + r.maxQueueDepth + ", \"energyConsumed\": " + r.energyConsumed
+						+ ", \"timestepNanos\": " + r.timestepNanos + ", \"deliveryNanos\": " + r.deliveryNanos + "}");
+			}
+			writer.write("\n  ]\n}\n");
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void writePhase(BufferedWriter writer, Phase p) throws IOException {
+		writer.write("{\"name\": \"" + p.name + "\", \"rounds\": " + p.rounds + ", \"messages\": ");
+		writeMessages(writer, p.messages);
+		writer.write(", \"maxQueueDepth\": " + p.maxQueueDepth + ", \"energyConsumed\": " + p.energyConsumed
+				+ ", \"timestepNanos\": " + p.timestepNanos + ", \"deliveryNanos\": " + p.deliveryNanos + "}");
+	}
+
+	private static void writeMessages(BufferedWriter writer, long[] messages) throws IOException {
+		long total = 0;
+		writer.write("{");
+		for (int i = 0; i < TYPES.length; i++){
+			writer.write("\"" + TYPES[i] + "\": " + messages[i] + ", ");
+			total += messages[i];
+		}
+		writer.write("\"total\": " + total + "}");
+	}
+}
@@ -1,99 +1,474 @@
 package network;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import simulator.FileSink;
 import simulator.Log;
+import simulator.TraceWriter;
 
 public class Network {
 	
-	public static List<Message> messagesToSend;
-	public static float minimumEnergy;
+	/**
+	 * How the nodes' time steps are executed in each round. Both modes deliver the same messages in the same order.
+	 */
+	public enum ExecutionMode {
+		SEQUENTIAL,  // Step every node in turn on the calling thread.
+		PARALLEL,    // Step contiguous ranges of nodes on a fork-join pool.
+		EVENT_DRIVEN // Only step the nodes that have messages, in turn on the calling thread. Messages can take longer
+		             // than a round to arrive (see latencyPerUnit).
+	}
+	
+	/**
+	 * How nodes report their MWOE candidates to the leader of their fragment.
+	 */
+	public enum ReportMode {
+		BROADCAST,   // Every candidate is broadcast through the tree, and the leader picks the lightest.
+		CONVERGECAST // Each node waits for its children, and sends only the lightest edge it knows of to its parent.
+	}
+	
+	/**
+	 * How the MST is built and repaired.
+	 */
+	public enum MstMode {
+		GHS,      // Pass messages between the nodes, as in SynchGHS.
+		BORUVKA,  // Merge fragments directly, without passing messages. Much faster, and builds the same MST.
+		ASYNC_GHS // Pass messages between node actors as they arrive, without rounds, as in GHS. Builds the same MST.
+	}
+	
+	/**
+	 * What the weight of an edge, which the MST minimises, is made of. Sending a message over an edge always costs
+	 * energy in proportion to its length.
+	 */
+	public enum WeightMode {
+		DISTANCE,     // The length of the edge.
+		ENERGY_AWARE  // The length of the edge, scaled up as the energy left in the weaker of its nodes runs down. The
+		              // weights are worked out again, and the MST rebuilt, after every broadcast.
+	}
+	
+	// Don't split the nodes into ranges smaller than this, or scheduling costs more than the time steps.
+	private static final int MIN_NODES_PER_WORKER = 256;
+	private static final int MAX_CHECK_EDGES_SHOWN = 10; // For each kind of difference
+	// Energy left above the minimum is counted as at least this, so that edge weights stay finite.
+	private static final float MIN_RESIDUAL_ENERGY = 1e-3f;
+	
+	public float minimumEnergy;
+	public MessageBus bus;
+	public Log log;
+	public TraceWriter trace;
+	public Metrics metrics; // Records every round, if set
+	public Partition partition; // This process's share of the nodes, in a partitioned run
 	
 	public List<Node> nodes;
+	public NodeStore store; // The nodes' positions, energy, ranges, leaders and liveness
 	public List<Node> leaders;
 	public Queue<Integer> broadcastIds;
 	
+	public ExecutionMode executionMode;
+	public int numThreads;
+	public float latencyPerUnit; // Extra rounds a message takes per unit of edge length, in the event driven mode
+	public ReportMode reportMode;
+	public MstMode mstMode;
+	public boolean incrementalRepair; // Only rebuild the fragments affected by node deaths
+	public int pipelineDepth; // Broadcasts in flight at once. 1 runs each to completion before starting the next.
+	public WeightMode weightMode;
+	public boolean checkMst; // Check the tree against ReferenceMst after every build and repair
+	public boolean classifyEdges; // Keep each edge's GHS state, and only test basic edges. Needs CONVERGECAST.
+	public int mstChecks;
+	public int mstCheckFailures;
+	
+	public int numRounds; // Rounds executed so far
+	// Statistics for the last call to buildMst()
+	public int mstPhases;
+	public int mstRounds;
+	public long mstMessages;
+	// Estimated savings of the last incremental repair over a full rebuild
+	public int repairSavedRounds;
+	public long repairSavedMessages;
+	// Statistics for the last call to executeTransmissions()
+	public int transmissionRounds;
+	public int transmissionRepairRounds; // Of those, the rounds spent repairing the MST
+	// For each node death in turn, the number of broadcasts that had completed before it
+	public List<Integer> broadcastsBeforeDeath;
+	float energyReference; // The most energy any node had left when discovery finished
+	private ForkJoinPool pool;
+	private List<RoundWorker> workers;
+	private Map<Integer, Node> leaderById;
+	
 	public Network(){
 		nodes = new ArrayList<Node>();
+		store = new NodeStore(0);
 		leaders = new ArrayList<Node>();
 		broadcastIds  = new LinkedList<Integer>();
-		messagesToSend = new ArrayList<Message>();
+		bus = new MessageBus(nodes);
+		log = new Log(new FileSink(Log.DEFAULT_PATH));
+		executionMode = ExecutionMode.SEQUENTIAL;
+		numThreads = Runtime.getRuntime().availableProcessors();
+		latencyPerUnit = 0;
+		reportMode = ReportMode.BROADCAST;
+		mstMode = MstMode.GHS;
+		incrementalRepair = false;
+		pipelineDepth = 1;
+		weightMode = WeightMode.DISTANCE;
+		broadcastsBeforeDeath = new ArrayList<Integer>();
+		checkMst = false;
+		classifyEdges = false;
+		leaderById = new HashMap<Integer, Node>();
 	}
 	
 	public void addNode(int nodeId, float posX, float posY, float energy, float range){
-		Node n = new Node(nodeId, posX, posY, energy, range);
+		Node n = new Node(nodeId, store, store.addNode(nodeId, posX, posY, energy, range));
+		n.network = this;
 		nodes.add(n);
 		leaders.add(n);
 	}
 	
+	/**
+	 * Put the nodes in order along a space filling curve, so that nodes near each other in space are mostly near each
+	 * other in the node list. The nodes are created again in that order, so they are laid out in memory in that order
+	 * too. Their indices change, but their ids (and so the log) don't. Must be called before discover().
+	 */
+	public void orderNodes(NodeOrder.Curve curve){
+		if (numRounds > 0 || bus.numPending() > 0){
+			throw new IllegalStateException("Nodes can only be ordered before discovery");
+		}
+		int n = nodes.size();
+		float[] positionX = new float[n];
+		float[] positionY = new float[n];
+		for (int i = 0; i < n; i++){
+			positionX[i] = nodes.get(i).positionX();
+			positionY[i] = nodes.get(i).positionY();
+		}
+		int[] order = NodeOrder.sort(positionX, positionY, n, curve);
+		List<Node> unordered = new ArrayList<Node>(nodes);
+		nodes.clear();
+		leaders.clear();
+		// The old nodes keep the old store, so they can still be read while the new ones are added.
+		store = new NodeStore(n);
+		for (int i : order){
+			Node m = unordered.get(i);
+			addNode(m.nodeId, m.positionX(), m.positionY(), m.energyLevel(), m.range());
+		}
+	}
+	
+	/**
+	 * Record the rest of the simulation in the given binary trace: the messages delivered, the rounds, and the lines
+	 * written to the log.
+	 */
+	public void startTrace(TraceWriter trace){
+		this.trace = trace;
+		this.bus.trace = trace;
+		this.log.trace = trace;
+	}
+	
 	public void addBroadcast(int nodeId){
 		this.broadcastIds.add(nodeId);
 	}
 	
 	public void discover(){
-		for (Node n : nodes){
-			for (Node m : nodes){
-				if (n.nodeId != m.nodeId && distanceBetweenNodes(n,m) <= n.range){
+		String previousPhase = (metrics != null) ? metrics.startPhase("discover", this) : null;
+		// Only nodes in the cells around a node can be in its range, so we don't need to test every pair.
+		// Candidates are visited in node order, so messages are sent in the same order as a full scan.
+		SpatialGrid grid = new SpatialGrid(nodes);
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			if (!acts(n)) continue;
+			int numCandidates = grid.collectCandidates(i);
+			for (int k = 0; k < numCandidates; k++){
+				Node m = nodes.get(grid.candidate(k));
+				if (n.nodeId != m.nodeId && distanceBetweenNodes(n,m) <= n.range()){
 					n.initiateDiscover(m);
 				}
 			}
+			acted();
 		}
 		waitForExecution();
+		
+		// Positions never change, so the weights of every node's edges can be worked out once here, unless they depend
+		// on energy.
+		energyReference = MIN_RESIDUAL_ENERGY;
+		for (Node n : nodes) energyReference = Math.max(energyReference, n.energyLevel() - minimumEnergy);
+		for (Node n : nodes) n.buildAdjacency();
+		if (metrics != null) metrics.endPhase(previousPhase);
 	}
 	
 	public void buildMst(){
-		System.out.println("Begin Build MST");
+		log.print("Begin Build MST");
+		String previousPhase = (metrics != null) ? metrics.startPhase("buildMst", this) : null;
+		int startRounds = numRounds;
+		long startMessages = bus.numDelivered;
+		if (mstMode == MstMode.ASYNC_GHS){
+			AsyncGhs async = new AsyncGhs(this);
+			mstPhases = async.run();
+			// No rounds pass, so count the longest chain of messages instead.
+			mstRounds = async.depth;
+			mstMessages = async.numMessages;
+		} else {
+			if (mstMode == MstMode.BORUVKA){
+				mstPhases = new BoruvkaMst(this).run();
+			} else {
+				mstPhases = runPhases(leaders, null);
+			}
+			mstRounds = numRounds - startRounds;
+			mstMessages = bus.numDelivered - startMessages;
+		}
+		if (metrics != null) metrics.endPhase(previousPhase);
+		log.print("MST Built");
+		Object mode = (mstMode == MstMode.GHS) ? reportMode : mstMode;
+		log.print("MST statistics (" + mode + "): " + mstPhases + " phases, " + mstRounds + " rounds, "
+				+ mstMessages + " messages");
+		if (checkMst) checkMst("buildMst");
+	}
+	
+	/**
+	 * Compare the alive nodes' trees with the MST worked out centrally, and print any differences.
+	 * @return true if the trees are a minimum spanning forest
+	 */
+	public boolean checkMst(String after){
+		ReferenceMst.Comparison c = new ReferenceMst(nodes).compare(nodes);
+		boolean minimal = c.isMinimal();
+		mstChecks++;
+		if (!minimal) mstCheckFailures++;
+		String result = minimal ? (c.sameEdges() ? "ok" : "ok, with different edges of equal weight") : "FAILED";
+		log.print("MST check (" + after + "): " + result + ", tree " + c.numTreeEdges + " edges of weight "
+				+ c.treeWeight + ", reference " + c.numReferenceEdges + " edges of weight " + c.referenceWeight);
+		if (!minimal){
+			printEdges("missing", c.missing);
+			printEdges("extra", c.extra);
+			printEdges("cycle", c.cycles);
+			printEdges("one-sided", c.oneSided);
+		}
+		return minimal;
+	}
+	
+	private void printEdges(String label, List<Edge> edges){
+		int shown = Math.min(edges.size(), MAX_CHECK_EDGES_SHOWN);
+		for (int i = 0; i < shown; i++) log.print("  " + label + ": " + edges.get(i));
+		if (edges.size() > shown) log.print("  ... and " + (edges.size() - shown) + " more " + label);
+	}
+	
+	/**
+	 * Run SynchGHS phases for the fragments led by the given leaders, until none of them has an outgoing edge.
+	 * Leaders that lose their leadership in a merge are removed from the list.
+	 * 
+	 * When repairing, only some of the fragments take part. A fragment that one of them connects to has to join in
+	 * from then on, so that its nodes learn the leader of the merged fragment. Its leader is added to the list and
+	 * marked as repairing.
+	 * @param estimate if repairing, works out what the untouched fragments would have cost, otherwise null
+	 * @return the number of phases
+	 */
+	private int runPhases(List<Node> phaseLeaders, RepairEstimate estimate){
+		int phases = 0;
 		 while (true){
-			System.out.println("Round Start");
+			phases++;
+			log.print("Round Start");
 			// We have started a new level. Write to the log file which leaders we will be contacting.
-			Log.writeBs(leaders);
+			log.writeBs(phaseLeaders);
 			
 			// Each fragment finds all possible MWOEs
-			for (Node n : leaders) n.initiateEdgeFind();
-			waitForExecution();
+			for (Node n : phaseLeaders){
+				if (!acts(n)) continue;
+				n.initiateEdgeFind();
+				acted();
+			}
+			int rounds = waitForExecution();
+			if (estimate != null) estimate.edgeFindDone(rounds);
 			
 			// Poll each of the leaders to find the status of MWOE selection
 			// If we have no edges to add to the tree, we are done.
 			int numEdges = 0;
-			for (Node n : leaders) {
+			for (Node n : phaseLeaders) {
 				numEdges += n.candidateEdges.size();
 				for (Edge e : n.candidateEdges){
-					System.out.println(e.toString());
+					log.print(e.toString());
 				}
 			}
-			System.out.println("Edges: " + numEdges);
+			log.print("Edges: " + numEdges);
 			
 			if (numEdges == 0) break; 
 			
 			// Tell the leaders to start merging
-			for (Node n : leaders) n.initiateMerge();
+			for (Node n : phaseLeaders){
+				if (!acts(n)) continue;
+				n.initiateMerge();
+				acted();
+			}
 			waitForExecution();
+			if (estimate != null) includeMergedFragments(phaseLeaders);
 				
 			// Tell the leaders to broadcast their ID in the new tree(s).
-			for (Node n : leaders) n.initiateLeaderChange();
-			waitForExecution();
+			for (Node n : phaseLeaders){
+				if (!acts(n)) continue;
+				n.initiateLeaderChange();
+				acted();
+			}
+			rounds = waitForExecution();
+			if (estimate != null) estimate.leaderChangeDone(rounds);
 
-            // Update the list of leaders.
+            // Update the list of leaders, keeping the order of the remaining ones.
             List<Node> toRemove = new ArrayList<Node>();
-            for (Node n : leaders) if (!n.isLeader) toRemove.add(n);
-            leaders.removeAll(toRemove);
+            int numLeaders = 0;
+            for (int i = 0; i < phaseLeaders.size(); i++){
+                Node n = phaseLeaders.get(i);
+                if (n.isLeader()){
+                    phaseLeaders.set(numLeaders++, n);
+                } else {
+                    toRemove.add(n);
+                }
+            }
+            phaseLeaders.subList(numLeaders, phaseLeaders.size()).clear();
 			
 			// We have elected new leaders. Write to the log!
 			// The elected leaders can be found from the leaderId of previous leaders.
-		    Log.writeElected(toRemove);
+		    log.writeElected(toRemove);
 		 }
-		 System.out.println("MST Built");
+		 return phases;
+	}
+	
+	/**
+	 * Add the leaders of the fragments at the other end of the repairing fragments' chosen edges.
+	 */
+	private void includeMergedFragments(List<Node> phaseLeaders){
+		int numLeaders = phaseLeaders.size();
+		for (int i = 0; i < numLeaders; i++){
+			Node n = phaseLeaders.get(i);
+			if (n.candidateEdges.isEmpty()) continue;
+			Edge minimumEdge = n.candidateEdges.get(0);
+			for (Edge e : n.candidateEdges){
+				minimumEdge = Edge.smallerOf(e, minimumEdge);
+			}
+			Node other = leaderById.get(minimumEdge.right.leaderId());
+			if (other != null && other.isLeader() && !other.isRepairing){
+				other.isRepairing = true;
+				phaseLeaders.add(other);
+			}
+		}
+	}
+	
+	/**
+	 * Repair the MST after node deaths by only running GHS phases for the fragments the deaths created, i.e. those
+	 * whose leader was declared by a NODE_DOWN or EMERGENCY_LEADER message. The other fragments keep their trees.
+	 */
+	public void repairMst(){
+		log.print("Begin Repair MST");
+		String previousPhase = (metrics != null) ? metrics.startPhase("repairMst", this) : null;
+		int startRounds = numRounds;
+		long startMessages = bus.numDelivered;
+		
+		leaderById.clear();
+		List<Node> repairing = new ArrayList<Node>();
+		List<Node> untouched = new ArrayList<Node>();
+		for (Node n : nodes){
+			if (n.isLeader() && n.isAlive()){
+				leaderById.put(n.nodeId, n);
+				if (n.isRepairing){
+					repairing.add(n);
+				} else {
+					untouched.add(n);
+				}
+			}
+		}
+		RepairEstimate estimate = new RepairEstimate(untouched, this);
+		
+		if (!repairing.isEmpty()){
+			mstPhases = runPhases(repairing, estimate);
+		} else {
+			mstPhases = 0;
+		}
+		
+		// Every fragment now has a single leader again.
+		leaders.clear();
+		for (Node n : nodes){
+			if (n.isLeader()) leaders.add(n);
+			n.isRepairing = false;
+		}
+		
+		mstRounds = numRounds - startRounds;
+		mstMessages = bus.numDelivered - startMessages;
+		repairSavedRounds = estimate.savedRounds;
+		repairSavedMessages = estimate.savedMessages;
+		if (metrics != null) metrics.endPhase(previousPhase);
+		log.print("MST Repaired");
+		log.print("Repair statistics (" + reportMode + "): " + repairing.size() + " fragments repaired, "
+				+ estimate.numFragments + " untouched, " + mstPhases + " phases, " + mstRounds + " rounds, "
+				+ mstMessages + " messages, saved about " + repairSavedRounds + " rounds and " + repairSavedMessages
+				+ " messages");
+		if (checkMst) checkMst("repairMst");
+	}
+	
+	/**
+	 * @return the weight of the edge between a and b, whose length is given
+	 */
+	float edgeWeight(Node a, Node b, float distance){
+		if (weightMode == WeightMode.DISTANCE) return distance;
+		// Both ends work out the same weight, as it only depends on the weaker node. With full energy, the weight is
+		// the length.
+		float residual = Math.min(a.energyLevel(), b.energyLevel()) - minimumEnergy;
+		return distance * (energyReference / Math.max(residual, MIN_RESIDUAL_ENERGY));
+	}
+	
+	/**
+	 * Work out the weights of the alive nodes' edges again from their energy levels, and build the MST again from
+	 * scratch over the new weights.
+	 */
+	private void reweightMst(){
+		for (Node n : nodes){
+			if (n.isAlive()) n.buildAdjacency();
+			n.treeNodes.clear();
+			n.candidateEdges.clear();
+			n.setLeader(n.isAlive());
+			n.setLeaderId(n.nodeId);
+			n.isRepairing = false;
+			n.mwoe = null;
+			n.mwoeWeight = Float.MAX_VALUE;
+			n.parent = null;
+			n.numEdgesWaitingFor = 0;
+			n.numReportsWaitingFor = 0;
+		}
+		leaders.clear();
+		for (Node n : nodes) if (n.isAlive()) leaders.add(n);
+		buildMst();
 	}
 	
 	public void executeTransmissions(){
+		String previousPhase = (metrics != null) ? metrics.startPhase("executeTransmissions", this) : null;
+		int startRounds = numRounds;
+		transmissionRepairRounds = 0;
+		if (pipelineDepth > 1){
+			pipelineTransmissions();
+		} else {
+			serialTransmissions();
+		}
+		transmissionRounds = numRounds - startRounds;
+		if (metrics != null) metrics.endPhase(previousPhase);
+		int broadcastRounds = transmissionRounds - transmissionRepairRounds;
+		log.print("Transmission statistics (pipeline depth " + Math.max(pipelineDepth, 1) + "): "
+				+ broadcastIds.size() + " broadcasts, " + broadcastRounds + " rounds, "
+				+ (float) broadcastIds.size() / Math.max(broadcastRounds, 1) + " broadcasts per round, "
+				+ transmissionRepairRounds + " rounds repairing");
+	}
+	
+	/**
+	 * Run each broadcast until the network is quiet before starting the next.
+	 */
+	private void serialTransmissions(){
 		int numAlive = nodes.size();
+		int numBroadcasts = 0;
 		for (int id : this.broadcastIds){
             for (Node n : nodes){
-                if (n.nodeId == id && n.isAlive){
-                    n.dataBroadcast();
+                if (n.nodeId == id && n.isAlive()){
+                    if (acts(n)){
+                        n.dataBroadcast(numBroadcasts);
+                        acted();
+                    }
                     break;
                 }
             }
@@ -101,47 +476,243 @@ public class Network {
 			 
 			// If any nodes went down as a result of the last broadcast, then we need to rebuild the tree.
 			int i = 0;
-			for (Node n : nodes) if (n.isAlive) i++;
-			if (i < numAlive) {
-                // Update the leaders since they will have changed as a result of the node death(s).
-                this.leaders.clear();
-                for (Node n : nodes) if (n.isLeader) leaders.add(n);
-
-                Log.shouldWrite = false;
-                buildMst();
-                Log.shouldWrite = true;
-            }
+			for (Node n : nodes) if (n.isAlive()) i++;
+			for (int d = i; d < numAlive; d++) broadcastsBeforeDeath.add(numBroadcasts);
+			numBroadcasts++;
+			if (weightMode == WeightMode.ENERGY_AWARE || i < numAlive) rebuildMst();
 			
 			numAlive = i;
 		}
 	}
 	
+	/**
+	 * Keep up to pipelineDepth broadcasts in flight at once, starting the next queued broadcast as soon as one
+	 * finishes. A broadcast has finished once none of its data messages are left to handle.
+	 * 
+	 * The trees only change when the network is quiet: once a node dies, no more broadcasts are started until those in
+	 * flight (and the news of the death) have died down, and then the MST is repaired as in the serial mode. With
+	 * energy aware weights, the MST is rebuilt after each batch of pipelineDepth broadcasts rather than after each one.
+	 */
+	private void pipelineTransmissions(){
+		bus.countBroadcasts = true;
+		Iterator<Integer> queued = broadcastIds.iterator();
+		List<Integer> inFlight = new ArrayList<Integer>();
+		int numAlive = nodes.size();
+		int numStarted = 0;
+		int numDone = 0;
+		int startedAtRebuild = 0;
+		boolean deaths = false;
+		boolean quiet = true;
+		while (true){
+			boolean energyAware = (weightMode == WeightMode.ENERGY_AWARE);
+			boolean batchDone = (energyAware && numStarted - startedAtRebuild >= pipelineDepth);
+			while (!deaths && !batchDone && inFlight.size() < pipelineDepth && queued.hasNext()){
+				int id = queued.next();
+				Node source = null;
+				for (Node n : nodes){
+					if (n.nodeId == id && n.isAlive()){
+						source = n;
+						break;
+					}
+				}
+				if (source != null){
+					source.dataBroadcast(numStarted);
+					inFlight.add(numStarted);
+					// The source can die sending its own broadcast, and then no more are started, as for any death.
+					if (!source.isAlive()) deaths = true;
+				} else {
+					numDone++;
+				}
+				numStarted++;
+				batchDone = (energyAware && numStarted - startedAtRebuild >= pipelineDepth);
+			}
+			
+			if (inFlight.isEmpty() && quiet){
+				if (deaths || (energyAware && numStarted > startedAtRebuild)){
+					rebuildMst();
+					deaths = false;
+					startedAtRebuild = numStarted;
+					continue;
+				}
+				if (!queued.hasNext()) break;
+				// Every broadcast just started was from a dead node.
+				continue;
+			}
+			
+			quiet = !executeRound() && bus.numInFlight() == 0;
+			for (Iterator<Integer> it = inFlight.iterator(); it.hasNext();){
+				if (bus.numDataInFlight(it.next()) == 0){
+					it.remove();
+					numDone++;
+				}
+			}
+			int i = 0;
+			for (Node n : nodes) if (n.isAlive()) i++;
+			for (int d = i; d < numAlive; d++) broadcastsBeforeDeath.add(numDone);
+			if (i < numAlive) deaths = true;
+			numAlive = i;
+		}
+		bus.countBroadcasts = false;
+	}
+	
+	/**
+	 * Rebuild or repair the MST once broadcasts have stopped, after node deaths, or after the energy levels have
+	 * changed when the weights depend on them.
+	 */
+	private void rebuildMst(){
+		int startRounds = numRounds;
+		log.shouldWrite = false;
+		if (weightMode == WeightMode.ENERGY_AWARE){
+			// Every broadcast changes the weights, and the rebuild also takes care of any deaths.
+			reweightMst();
+		} else if (mstMode != MstMode.GHS){
+			// Boruvka builds on the trees that are left, so it only ever repairs. Asynchronous GHS builds the whole tree
+			// again over the alive nodes.
+			buildMst();
+		} else if (incrementalRepair){
+			repairMst();
+		} else {
+			// Update the leaders since they will have changed as a result of the node death(s).
+			this.leaders.clear();
+			for (Node n : nodes) if (n.isLeader()) leaders.add(n);
+			for (Node n : nodes) n.isRepairing = false;
+			buildMst();
+		}
+		log.shouldWrite = true;
+		transmissionRepairRounds += numRounds - startRounds;
+	}
+	
+	/**
+	 * In a partitioned run, only the process whose partition has the given node acts for it, though every process
+	 * runs the phases. Otherwise this process acts for every node.
+	 * @return true if this process acts for the node, in which case acted() must be called once it has
+	 */
+	public boolean acts(Node n){
+		return partition == null || partition.acts(n);
+	}
+	
+	public void acted(){
+		if (partition != null) partition.acted();
+	}
+	
 	/**
 	 * We are still executing if there are any messages in the network.
+	 * @return the number of rounds executed
 	 */
-	private void waitForExecution() {
-		boolean executing = true;
-		while(executing){
-			for (Node n : nodes) if (n.isAlive) n.timestep();
-			int numMessages = Network.messagesToSend.size();
-			sendAllMessages();
-			System.out.println("----");
-			executing = (numMessages != 0);
+	private int waitForExecution() {
+		int startRounds = numRounds;
+		while (executeRound());
+		return numRounds - startRounds;
+	}
+	
+	/**
+	 * Step the nodes and deliver the messages they sent, in the current execution mode.
+	 * @return true if any messages were delivered, which the next round will handle
+	 */
+	private boolean executeRound(){
+		if (partition != null) return executePartitionRound();
+		if (executionMode == ExecutionMode.EVENT_DRIVEN) return executeEvents();
+		long start = (metrics != null) ? System.nanoTime() : 0;
+		if (executionMode == ExecutionMode.PARALLEL){
+			parallelTimestep();
+		} else {
+			for (int i = 0; i < nodes.size(); i++){
+				Node n = nodes.get(i);
+				if (n.isAlive()) n.timestep();
+			}
 		}
+		long stepped = (metrics != null) ? System.nanoTime() : 0;
+		int numMessages = bus.numPending();
+		bus.deliver();
+		numRounds++;
+		if (metrics != null) metrics.roundDone(this, stepped - start, System.nanoTime() - stepped);
+		if (trace != null) trace.round(numRounds);
+		log.print("----");
+		return numMessages != 0;
 	}
 	
-	private void sendAllMessages(){
-		for (Message m : Network.messagesToSend){
-            if (m.sender.isAlive || m.type == Message.Type.NODE_DOWN){
-                m.receiver.messageQueue.add(m);
-                System.out.println(m.toString());
-            }
+	/**
+	 * As executeRound(), but only the nodes that were delivered messages are stepped, in node order. A node with
+	 * nothing in its inbox does nothing in its time step, so with no latency this gives exactly the same messages and
+	 * log as the sequential mode. With latency, rounds in which no messages arrive are skipped over, but still counted.
+	 * @return true if any messages were delivered
+	 */
+	private boolean executeEvents(){
+		long start = (metrics != null) ? System.nanoTime() : 0;
+		int numWoken = bus.sortWoken();
+		for (int i = 0; i < numWoken; i++){
+			Node n = nodes.get(bus.woken(i));
+			if (n.isAlive()) n.timestep();
+		}
+		long stepped = (metrics != null) ? System.nanoTime() : 0;
+		if (latencyPerUnit > 0){
+			numRounds += bus.deliverAfterLatency(latencyPerUnit);
+		} else {
+			bus.deliver();
+			numRounds++;
+		}
+		if (metrics != null) metrics.roundDone(this, stepped - start, System.nanoTime() - stepped);
+		if (trace != null) trace.round(numRounds);
+		log.print("----");
+		return bus.numLastDelivered() != 0;
+	}
+	
+	/**
+	 * As executeRound(), but only this process's partition of the nodes is stepped, and the messages sent are exchanged
+	 * with the other partitions before they are delivered. Gives the same messages and log as the sequential mode.
+	 * @return true if any messages were delivered, to any partition
+	 */
+	private boolean executePartitionRound(){
+		int numMessages = partition.executeRound();
+		numRounds++;
+		log.print("----");
+		return numMessages != 0;
+	}
+	
+	/**
+	 * Step every alive node, splitting the nodes into contiguous ranges that are stepped on the pool.
+	 * The workers' messages and log output are then merged in range order, which is the order the sequential loop
+	 * would have produced them in. Nodes only change their own state during a time step, so this is safe.
+	 */
+	private void parallelTimestep(){
+		if (workers == null || workers.get(workers.size() - 1).to != nodes.size()){
+			workers = new ArrayList<RoundWorker>();
+			int numWorkers = Math.max(1, Math.min(numThreads * 4, nodes.size() / MIN_NODES_PER_WORKER));
+			for (int i = 0; i < numWorkers; i++){
+				workers.add(new RoundWorker(nodes, log, (int) ((long) nodes.size() * i / numWorkers),
+						(int) ((long) nodes.size() * (i + 1) / numWorkers)));
+			}
+		}
+		
+		List<Future<Void>> results = pool().invokeAll(workers);
+		for (Future<Void> f : results){
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		
+		for (RoundWorker w : workers){
+			for (int slot = 0; slot < w.outbox.size(); slot++) bus.outbox.addFrom(w.outbox, slot);
+			w.outbox.clear();
+			log.replay(w.logBuffer);
+			w.logBuffer.clear();
+		}
+	}
+	
+	ForkJoinPool pool(){
+		if (pool == null){
+			pool = new ForkJoinPool(numThreads);
 		}
-		Network.messagesToSend.clear();
+		return pool;
 	}
 	
 	public static float distanceBetweenNodes(Node a, Node b){
-		double sqdist = Math.pow((a.positionX - b.positionX),2.0) + Math.pow((a.positionY - b.positionY),2.0);
+		double sqdist = Math.pow((a.positionX() - b.positionX()),2.0) + Math.pow((a.positionY() - b.positionY()),2.0);
 		return (float) Math.sqrt(sqdist);
 	}
 }
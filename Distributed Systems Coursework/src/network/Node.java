@@ -1,83 +1,167 @@
 package network;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
-
-import simulator.Log;
 
 public class Node {
 	
-	public float energyLevel;
-	public boolean isAlive;
+	// What GHS knows of each edge, when the network classifies edges.
+	static final byte BASIC = 0;    // Not known to be in the tree or inside the fragment
+	static final byte BRANCH = 1;   // In the tree
+	static final byte REJECTED = 2; // Inside the fragment, so never outgoing until the fragment is split
+	
 	public int nodeId;
-	public float range;
-	public float positionX;
-	public float positionY;
-	public List<Node> neighbours;
-	public Queue<Message> messageQueue;
-	
-	public int leaderId;
-	public List<Node> treeNodes;
-	public boolean isLeader;
+	public int index; // Position in the network's node list, and in its store
+	// Holds this node's position, energy, range, leader and liveness, which are read and written through the methods
+	// below.
+	NodeStore store;
+	public NodeSet neighbours;
+	// Built once discovery has finished, and again whenever the network reweights its edges. Neighbour indices and
+	// edge weights, lightest edge first. Neighbours with equal weights keep their discovery order.
+	public int[] sortedNeighbours;
+	public float[] sortedWeights;
+	// The same edges ordered by neighbour index, to look up the weight of an edge to a given node, and its length.
+	int[] indexedNeighbours;
+	float[] indexedWeights;
+	float[] indexedDistances;
+	// When the network classifies edges, the state of each edge in indexed order, and the position in sortedNeighbours
+	// of the edge being tested (or to test next). No edge before that one is both basic and to an alive node.
+	byte[] edgeStates;
+	int nextTest;
+	public MessageQueue messageQueue;
+	
+	public NodeSet treeNodes;
 	public List<Edge> candidateEdges;
 	
 	public float mwoeWeight;
 	public Edge mwoe;
 	public int numEdgesWaitingFor;
 	
-	public Node(int nodeId, float positionX, float positionY, float initialEnergy, float range){
+	// Used when reporting MWOEs by convergecast.
+	public Node parent; // The node we report to in this phase, or null once we have reported.
+	public int numReportsWaitingFor;
+	
+	public boolean isRepairing; // In a fragment that was split by a node death and hasn't been repaired yet.
+	public int repairRound; // The round our emergency leader was declared in, while repairing
+	
+	Network network;
+	MessageBuffer outbox; // Set while a parallel worker is stepping this node, otherwise messages go to the bus.
+	
+	/**
+	 * Create the node whose state is at the given index of the store.
+	 */
+	Node(int nodeId, NodeStore store, int index){
 		this.nodeId = nodeId;
-		this.positionX = positionX;
-		this.positionY = positionY;
-		this.energyLevel = initialEnergy;
-		this.isAlive = true;
-		this.range = range;
-		this.neighbours = new ArrayList<Node>();
-		this.messageQueue = new LinkedList<Message>();
+		this.store = store;
+		this.index = index;
+		this.neighbours = new NodeSet();
+		this.messageQueue = new MessageQueue();
 		
-		this.isLeader = true;
-		this.leaderId = nodeId;
-		this.treeNodes = new ArrayList<Node>();
+		this.treeNodes = new NodeSet();
 		this.candidateEdges = new ArrayList<Edge>();
 		
 		this.mwoeWeight = Float.MAX_VALUE;
 		this.mwoe = null;
 		this.numEdgesWaitingFor = 0;
+		
+		this.parent = null;
+		this.numReportsWaitingFor = 0;
+		
+		this.isRepairing = false;
+		this.repairRound = -1;
+	}
+	
+	public float positionX(){
+		return store.positionX[index];
+	}
+	
+	public float positionY(){
+		return store.positionY[index];
+	}
+	
+	public float energyLevel(){
+		return store.energyLevel[index];
+	}
+	
+	public float range(){
+		return store.range[index];
+	}
+	
+	public boolean isAlive(){
+		return store.alive[index];
+	}
+	
+	public void setAlive(boolean alive){
+		store.alive[index] = alive;
+	}
+	
+	public boolean isLeader(){
+		return store.leader[index];
+	}
+	
+	public void setLeader(boolean leader){
+		store.leader[index] = leader;
+	}
+	
+	public int leaderId(){
+		return store.leaderId[index];
 	}
 	
-	private void send(Message msg){
-		Network.messagesToSend.add(msg);
+	public void setLeaderId(int leaderId){
+		store.leaderId[index] = leaderId;
+	}
+	
+	private void send(Node receiver, Message.Type type, Edge edge, int leaderId){
+		send(receiver, type, edge, leaderId, -1, -1);
+	}
+	
+	private void send(Node receiver, Message.Type type, Edge edge, int leaderId, int broadcastId, int repairRound){
+		MessageBuffer buffer = (this.outbox != null) ? this.outbox : network.bus.outbox;
+		buffer.add(type, this.index, receiver.index, edge, leaderId, broadcastId, repairRound);
+	}
+	
+	private void send(Node receiver, Message.Type type){
+		send(receiver, type, null, -1);
 	}
 	
 	private void broadcast(Message m){
-		for (Node n : this.treeNodes){
+		for (int i = 0; i < this.treeNodes.size(); i++){
+			Node n = this.treeNodes.get(i);
 			if (!m.sender.equals(n)){
-				send(new Message(this, n, m.type, m.edge, m.leaderId));
+				send(n, m.type, m.edge, m.leaderId, m.broadcastId, m.repairRound);
 			}
 		}	
 	}
 	
 	public void dataBroadcast(){
-		dataBroadcast(null);
+		dataBroadcast(-1);
 	}
 	
-	private void dataBroadcast(Message msg){
-		for (Node n : this.treeNodes){
+	/**
+	 * Start a broadcast, whose data messages are tagged with the given id so that the network can tell when it has
+	 * finished.
+	 */
+	public void dataBroadcast(int broadcastId){
+		dataBroadcast(null, broadcastId);
+	}
+	
+	private void dataBroadcast(Message msg, int broadcastId){
+		for (int i = 0; i < this.treeNodes.size(); i++){
+			Node n = this.treeNodes.get(i);
 			if (msg == null || !msg.sender.equals(n)){ // Message will only equal null on first call
-				send(new Message(this, n, Message.Type.DATA_MESSAGE));
-				this.energyLevel -= Network.distanceBetweenNodes(this, n) * Message.MESSAGE_COST_MULTIPLIER;
-				Log.writeData(this, n);
+				send(n, Message.Type.DATA_MESSAGE, null, -1, broadcastId, -1);
+				store.energyLevel[index] -= distanceTo(n) * Message.MESSAGE_COST_MULTIPLIER;
+				network.log.writeData(this, n);
 				// Check if this node is now in danger.
-				if (this.energyLevel < Network.minimumEnergy){
+				if (this.energyLevel() < network.minimumEnergy){
 					// Broadcast to all tree nodes that this node is going down
-					for (Node m : this.treeNodes) send(new Message(this, m, Message.Type.NODE_DOWN));
+					for (Node m : this.treeNodes) send(m, Message.Type.NODE_DOWN);
 					// This node is now dead, and it cannot be a leader.
-					this.isAlive = false;
-					this.isLeader = false;
-					System.out.println("Node Death " + this.nodeId);
-					Log.writeNodeDown(this);
+					this.setAlive(false);
+					this.setLeader(false);
+					network.log.print("Node Death " + this.nodeId);
+					network.log.writeNodeDown(this);
 					// Stop sending data messages.
 					break;
 				}
@@ -85,32 +169,174 @@ public class Node {
 		}
 	}
 	
+	/**
+	 * Compute the weight of the edge to each neighbour, and sort the neighbours by weight.
+	 * Must be called again if the neighbours or the weights change.
+	 */
+	public void buildAdjacency(){
+		int degree = this.neighbours.size();
+		// Weights are never negative, so their bit patterns sort in the same order as the weights. Put the position in
+		// the low bits so that equal weights keep the discovery order.
+		long[] keys = new long[degree];
+		float[] distances = new float[degree];
+		float[] weights = new float[degree];
+		for (int i = 0; i < degree; i++){
+			Node n = this.neighbours.get(i);
+			distances[i] = Network.distanceBetweenNodes(this, n);
+			weights[i] = network.edgeWeight(this, n, distances[i]);
+			keys[i] = ((long) Float.floatToIntBits(weights[i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+		this.sortedNeighbours = new int[degree];
+		this.sortedWeights = new float[degree];
+		for (int k = 0; k < degree; k++){
+			int i = (int) keys[k];
+			this.sortedNeighbours[k] = this.neighbours.get(i).index;
+			this.sortedWeights[k] = weights[i];
+		}
+		
+		for (int i = 0; i < degree; i++){
+			keys[i] = ((long) this.neighbours.get(i).index << 32) | i;
+		}
+		Arrays.sort(keys);
+		this.indexedNeighbours = new int[degree];
+		this.indexedWeights = new float[degree];
+		this.indexedDistances = new float[degree];
+		for (int k = 0; k < degree; k++){
+			int i = (int) keys[k];
+			this.indexedNeighbours[k] = (int) (keys[k] >>> 32);
+			this.indexedWeights[k] = weights[i];
+			this.indexedDistances[k] = distances[i];
+		}
+		this.edgeStates = new byte[degree];
+		this.nextTest = 0;
+	}
+	
+	/**
+	 * @return the weight of the edge from this node to n
+	 */
+	public float weightTo(Node n){
+		if (this.indexedNeighbours != null){
+			int k = Arrays.binarySearch(this.indexedNeighbours, n.index);
+			if (k >= 0) return this.indexedWeights[k];
+		}
+		return network.edgeWeight(this, n, Network.distanceBetweenNodes(this, n));
+	}
+	
+	/**
+	 * @return the length of the edge from this node to n, which is what sending over it costs
+	 */
+	public float distanceTo(Node n){
+		if (this.indexedNeighbours != null){
+			int k = Arrays.binarySearch(this.indexedNeighbours, n.index);
+			if (k >= 0) return this.indexedDistances[k];
+		}
+		return Network.distanceBetweenNodes(this, n);
+	}
+	
+	/**
+	 * Mark the edge to n as being in the given state, if it is one of our edges and still basic.
+	 */
+	void classifyEdge(Node n, byte state){
+		if (this.edgeStates == null) return;
+		int k = Arrays.binarySearch(this.indexedNeighbours, n.index);
+		if (k >= 0 && this.edgeStates[k] == BASIC) this.edgeStates[k] = state;
+	}
+	
+	private byte edgeState(int sorted){
+		return this.edgeStates[Arrays.binarySearch(this.indexedNeighbours, this.sortedNeighbours[sorted])];
+	}
+	
+	/**
+	 * Move nextTest on to the lightest basic edge to an alive node. Edges only ever stop being basic, and nodes only
+	 * ever die, so nothing before it needs looking at again until the fragment is split.
+	 * @return false if there is no such edge
+	 */
+	private boolean findNextTest(){
+		while (this.nextTest < this.sortedNeighbours.length){
+			if (edgeState(this.nextTest) == BASIC && network.nodes.get(this.sortedNeighbours[this.nextTest]).isAlive()){
+				return true;
+			}
+			this.nextTest++;
+		}
+		return false;
+	}
+	
+	/**
+	 * Test the lightest edge that might be outgoing, if there is one.
+	 */
+	private void testNextEdge(){
+		if (findNextTest()){
+			numEdgesWaitingFor++;
+			send(network.nodes.get(this.sortedNeighbours[this.nextTest]), Message.Type.TEST_EDGE, null, this.leaderId());
+		}
+	}
+	
+	/**
+	 * Our fragment has been split by a node death, so edges inside it may be outgoing now.
+	 */
+	private void resetRejectedEdges(){
+		if (this.edgeStates == null) return;
+		for (int k = 0; k < this.edgeStates.length; k++){
+			if (this.edgeStates[k] == REJECTED) this.edgeStates[k] = BASIC;
+		}
+		this.nextTest = 0;
+	}
+	
+	/**
+	 * @return how many edges this node would test when asked for its MWOE, as long as its fragment's leader ids are
+	 * up to date
+	 */
+	int numTests(){
+		int tests = 0;
+		if (!network.classifyEdges || this.sortedNeighbours == null){
+			for (Node m : this.neighbours) if (m.isAlive()) tests++;
+			return tests;
+		}
+		// Basic edges are tested lightest first, until one is accepted.
+		for (int k = this.nextTest; k < this.sortedNeighbours.length; k++){
+			Node m = network.nodes.get(this.sortedNeighbours[k]);
+			if (edgeState(k) == BASIC && m.isAlive()){
+				tests++;
+				if (m.leaderId() != this.leaderId()) break;
+			}
+		}
+		return tests;
+	}
+	
 	/**
 	 * @return MWOE from this node or null if no outgoing edges
 	 */
 	private Edge findCandidateEdge(){
-		// Look at the edges around this node and pick one that is the lowest weight
-		float minWeight = Float.MAX_VALUE;
-		Node minNode = null;
-		for (Node n : this.neighbours){
-			float dist = Network.distanceBetweenNodes(this,n);
-			// If this is smaller than the previous smallest edge and it belongs to a different leader
-			if (dist < minWeight && n.leaderId != this.leaderId && n.isAlive){
-				minWeight = dist;
-				minNode = n;
+		if (this.sortedNeighbours == null) buildAdjacency();
+		// The neighbours are sorted by weight, so the first one that belongs to a different leader is the lightest.
+		for (int k = 0; k < this.sortedNeighbours.length; k++){
+			Node n = network.nodes.get(this.sortedNeighbours[k]);
+			if (n.leaderId() != this.leaderId() && n.isAlive()){
+				// Return an edge only if this node has an outgoing edge at all.
+				if (this.sortedWeights[k] < Float.MAX_VALUE){
+					return new Edge(this, n, this.sortedWeights[k]);
+				}
+				break;
 			}
 		}
-		
-		// Return an edge only if this node has an outgoing edge at all.
-		if (minNode != null){
-			return new Edge(this, minNode, minWeight);
-		} else {
-			return null;
+		return null;
+	}
+	
+	/**
+	 * Convergecast: once all our test replies and all our children's reports are in, send the lightest outgoing edge
+	 * we know of (or no edge, if we don't know of one) to our parent. Only one report is sent per phase.
+	 */
+	private void reportIfDone(){
+		if (this.parent != null && this.numEdgesWaitingFor == 0 && this.numReportsWaitingFor == 0){
+			send(this.parent, Message.Type.REPORT_MWOE, this.mwoe, -1);
+			this.parent = null;
+			this.mwoe = null;
 		}
 	}
 	
 	public void initiateDiscover(Node m){
-		this.send(new Message(this, m, Message.Type.DISCOVER));
+		this.send(m, Message.Type.DISCOVER);
 	}
 	
 	/**
@@ -124,8 +350,9 @@ public class Node {
 		if (minEdge != null){
 			this.candidateEdges.add(minEdge);	
 		}
+		this.numReportsWaitingFor = this.treeNodes.size();
 		for (Node n : treeNodes){
-			this.send(new Message(this, n, Message.Type.FIND_MWOE));
+			this.send(n, Message.Type.FIND_MWOE);
 		}
 	}
 	
@@ -138,10 +365,10 @@ public class Node {
 			}
 			if (this.nodeId == minimumEdge.left.nodeId){
                 // If the connection comes from the leader node, just send a connect message.
-				this.send(new Message(this, minimumEdge.right, Message.Type.CONNECT, minimumEdge));
+				this.send(minimumEdge.right, Message.Type.CONNECT, minimumEdge, -1);
 			} else {
 				for (Node n : this.treeNodes){
-					this.send(new Message(this, n, Message.Type.SELECTED_MWOE, minimumEdge));
+					this.send(n, Message.Type.SELECTED_MWOE, minimumEdge, -1);
 				}
 			}	
 		}
@@ -149,37 +376,80 @@ public class Node {
 	
 	public void initiateLeaderChange(){
 		for (Node n : this.treeNodes){
-			this.send(new Message(this, n, Message.Type.LEADER_CHANGE, this.nodeId));
+			this.send(n, Message.Type.LEADER_CHANGE, null, this.nodeId);
 		}
 	}
 	
-	public void timestep(){		
-		// Handle all messages that have been received and carry out required calculations
-		Message m = this.messageQueue.poll(); // First Message
-		while(m != null){
+	public void timestep(){
+		timestep(network.bus.cursor, network.bus.cursorEdge);
+	}
+	
+	/**
+	 * Handle all messages that have been received and carry out required calculations.
+	 * Each message is read into m (and its edge into edge), which are reused for every message to avoid allocating.
+	 * Anything that is kept after handling a message must be copied out of them.
+	 */
+	void timestep(Message m, Edge edge){
+		int slot = this.messageQueue.poll(); // First Message
+		while(slot >= 0){
+			network.bus.read(slot, m, edge);
 			switch(m.type){
 			case DISCOVER:
-				send(new Message(this, m.sender, Message.Type.DISCOVER_REPLY));
+				send(m.sender, Message.Type.DISCOVER_REPLY);
 				break;
 			case DISCOVER_REPLY:
 				this.neighbours.add(m.sender);
-				System.out.println("Link " + this.nodeId + " to " + m.sender.nodeId);
+				network.log.print("Link " + this.nodeId + " to " + m.sender.nodeId);
 				break;
 			case FIND_MWOE:
-				// Test all neighbours to find the MWOE.
-				for (Node n : this.neighbours){
-                    if (n.isAlive){
-                        numEdgesWaitingFor++;
-                        send(new Message(this, n, Message.Type.TEST_EDGE, this.leaderId));
-                    }
+				if (network.reportMode == Network.ReportMode.CONVERGECAST){
+					// Start this phase's search afresh.
+					this.mwoe = null;
+					this.mwoeWeight = Float.MAX_VALUE;
+				}
+				if (network.classifyEdges){
+					// Only the lightest basic edge needs testing. If it turns out to be inside the fragment, the next
+					// one is tested.
+					if (this.sortedNeighbours == null) buildAdjacency();
+					testNextEdge();
+				} else {
+					// Test all neighbours to find the MWOE.
+					for (int i = 0; i < this.neighbours.size(); i++){
+						Node n = this.neighbours.get(i);
+						if (n.isAlive()){
+							numEdgesWaitingFor++;
+							send(n, Message.Type.TEST_EDGE, null, this.leaderId());
+						}
+					}
 				}
 				// Broadcast in tree that leader wants MWOE
 				broadcast(m);
+				if (network.reportMode == Network.ReportMode.CONVERGECAST){
+					// Our children are every tree node except the one the request came from.
+					this.parent = m.sender;
+					this.numReportsWaitingFor = this.treeNodes.size() - 1;
+					reportIfDone();
+				}
 				break;
 			case REPORT_MWOE:
-				if (this.isLeader){
+				if (network.reportMode == Network.ReportMode.CONVERGECAST){
+					this.numReportsWaitingFor--;
+					if (m.edge != null){
+						if (this.isLeader()){
+							// Only keep the lightest edge reported so far.
+							if (this.candidateEdges.isEmpty() || m.edge.weight < this.candidateEdges.get(0).weight){
+								this.candidateEdges.clear();
+								this.candidateEdges.add(new Edge(m.edge.left, m.edge.right, m.edge.weight));
+							}
+						} else if (m.edge.weight < this.mwoeWeight){
+							this.mwoeWeight = m.edge.weight;
+							this.mwoe = new Edge(m.edge.left, m.edge.right, m.edge.weight);
+						}
+					}
+					if (!this.isLeader()) reportIfDone();
+				} else if (this.isLeader()){
 					 // We have received a response
-					this.candidateEdges.add(m.edge);
+					this.candidateEdges.add(new Edge(m.edge.left, m.edge.right, m.edge.weight));
 				} else {
 					// Keep broadcasting
 					broadcast(m);
@@ -188,27 +458,29 @@ public class Node {
 			case SELECTED_MWOE:
 				if (m.edge.left.nodeId == this.nodeId){
 					// We are at the node that needs to make the connection.
-					send(new Message(this, m.edge.right, Message.Type.CONNECT, m.edge));
+					send(m.edge.right, Message.Type.CONNECT, m.edge, -1);
 				} else {
 					// Need to keep broadcasting message in the tree.
 					broadcast(m);
 				}
 				break;
 			case CONNECT:
-				System.out.println("Connect Request: " + m.edge.left.nodeId + " to " + m.edge.right.nodeId + " (" + this.nodeId + ")");
-				send(new Message(this, m.sender, Message.Type.CONNECT_ACCEPT, m.edge));
-				if (!this.treeNodes.contains(m.sender)) this.treeNodes.add(m.sender);
-				Log.writeEdge(m.edge);
+				network.log.print("Connect Request: " + m.edge.left.nodeId + " to " + m.edge.right.nodeId + " (" + this.nodeId + ")");
+				send(m.sender, Message.Type.CONNECT_ACCEPT, m.edge, -1);
+				this.treeNodes.add(m.sender); // Unless it is already a tree node
+				classifyEdge(m.sender, BRANCH);
+				network.log.writeEdge(new Edge(m.edge.left, m.edge.right, m.edge.weight));
 				break;
 			case CONNECT_ACCEPT:
-				System.out.println("Connect Accepted." + this.nodeId + " to " + m.sender.nodeId);
-				if (!this.treeNodes.contains(m.sender)) this.treeNodes.add(m.sender);
+				network.log.print("Connect Accepted." + this.nodeId + " to " + m.sender.nodeId);
+				this.treeNodes.add(m.sender); // Unless it is already a tree node
+				classifyEdge(m.sender, BRANCH);
 				break;
 			case LEADER_CHANGE:
-				if (this.leaderId < m.leaderId){
+				if (this.leaderId() < m.leaderId){
 					// We have a new leader, and this node is definitely not the leader.
-					this.leaderId = m.leaderId;
-					this.isLeader = false;
+					this.setLeaderId(m.leaderId);
+					this.setLeader(false);
 					this.candidateEdges.clear(); // No longer the leader, we shouldnt have any candidate edges.
 				}
 				// Continue broadcast in tree
@@ -216,10 +488,12 @@ public class Node {
 				break;
 			case TEST_EDGE:
 				// Check if our leader id is different to the leader id of the message sender and reply
-				if (this.leaderId != m.leaderId){
-					send(new Message(this, m.sender, Message.Type.ACCEPT_EDGE));
+				if (this.leaderId() != m.leaderId){
+					send(m.sender, Message.Type.ACCEPT_EDGE);
 				} else {
-					send(new Message(this, m.sender, Message.Type.REJECT_EDGE));
+					send(m.sender, Message.Type.REJECT_EDGE);
+					// The edge is inside our fragment from this end too.
+					if (network.classifyEdges) classifyEdge(m.sender, REJECTED);
 				}
 				break;
 			case ACCEPT_EDGE:
@@ -227,60 +501,92 @@ public class Node {
 				
 				// Check to see if this edge has lower weight than previous minEdge
 				// If so, update the mwoe. Otherwise do nothing.				
-				Edge candidateEdge = new Edge(this, m.sender);
-				if (candidateEdge.weight < this.mwoeWeight){
-					this.mwoeWeight = candidateEdge.weight;
-					this.mwoe = candidateEdge;
+				float candidateWeight = weightTo(m.sender);
+				if (candidateWeight < this.mwoeWeight){
+					this.mwoeWeight = candidateWeight;
+					this.mwoe = new Edge(this, m.sender, candidateWeight);
 				}
 				
 				// Check if we have received all replies yet
-				if (this.numEdgesWaitingFor == 0) {
+				if (network.reportMode == Network.ReportMode.CONVERGECAST){
+					reportIfDone();
+				} else if (this.numEdgesWaitingFor == 0) {
 					// Initiate broadcast back in tree if we have found one.
 					if (this.mwoe != null){
-						send(new Message(this, m.sender, Message.Type.REPORT_MWOE, mwoe));
+						send(m.sender, Message.Type.REPORT_MWOE, mwoe, -1);
 						this.mwoe = null; // Done for this round. Reset
 					} 
 				}
 				break;
 			case REJECT_EDGE:
 				this.numEdgesWaitingFor--; // We have received a reply from an edge, but we should ignore it.
+				if (network.classifyEdges){
+					// Never test this edge again, but test the next one instead.
+					classifyEdge(m.sender, REJECTED);
+					testNextEdge();
+				}
 				
 				// Check if we have received all replies yet
-				if (this.numEdgesWaitingFor == 0) {
+				if (network.reportMode == Network.ReportMode.CONVERGECAST){
+					reportIfDone();
+				} else if (this.numEdgesWaitingFor == 0) {
 					if (this.mwoe != null){
 						// Initiate broadcast back in tree that we have found one.
-						send(new Message(this, m.sender, Message.Type.REPORT_MWOE, mwoe));
+						send(m.sender, Message.Type.REPORT_MWOE, mwoe, -1);
 						this.mwoe = null; // Done for this round. Reset
 					} 
 				}
 				break;
 			case DATA_MESSAGE:
-				dataBroadcast(m); // Continue data broadcast
+				dataBroadcast(m, m.broadcastId); // Continue data broadcast
 				break;
 			case NODE_DOWN:
 				// The sender of this message has just gone down, remove it from the tree nodes.
 				this.treeNodes.remove(m.sender);
-				// Declare this node an emergency leader and broadcast this fact to its tree.
-				this.isLeader = true;
-				this.leaderId = this.nodeId;
-				for (Node n : this.treeNodes){
-					send(new Message(this, n, Message.Type.EMERGENCY_LEADER, this.nodeId));
+				resetRejectedEdges();
+				// If several nodes die, more than one node in what is left of the tree can be told about it. The latest
+				// declaration wins, and of those made in the same round the one with the highest id, so unless we
+				// already know of such an emergency leader, declare this node an emergency leader and broadcast this
+				// fact to its tree. A later death can split a tree that already has an emergency leader, and then each
+				// part needs a leader of its own.
+				int round = network.numRounds;
+				if (!this.isRepairing || round > this.repairRound || this.nodeId > this.leaderId()){
+					this.setLeader(true);
+					this.isRepairing = true;
+					this.setLeaderId(this.nodeId);
+					this.repairRound = round;
+					for (Node n : this.treeNodes){
+						send(n, Message.Type.EMERGENCY_LEADER, null, this.nodeId, -1, round);
+					}
 				}
 				break;
 			case EMERGENCY_LEADER:
 				// A node has gone down, we need to rebuild the tree.
-				// Our new leader is the leaderId contained in this message.
-				this.isLeader = false;
-				this.leaderId = m.leaderId;
-				// Broadcast to the rest of the tree.
-				broadcast(m);
+				// Our new leader is the leaderId contained in this message, unless we already know of a later or higher
+				// one.
+				if (!this.isRepairing || m.repairRound > this.repairRound
+						|| (m.repairRound == this.repairRound && m.leaderId > this.leaderId())){
+					this.setLeader(false);
+					this.isRepairing = true;
+					this.setLeaderId(m.leaderId);
+					this.repairRound = m.repairRound;
+					resetRejectedEdges();
+					// Broadcast to the rest of the tree.
+					broadcast(m);
+				}
 				break;
 			default:
 				System.err.println("Message type not recognized. " + m.type);
 				System.exit(-1);
 			}
 			
-			m = this.messageQueue.poll(); // Next message
+			if (!this.isAlive()){
+				// We died handling that message. With several broadcasts in flight there can be more data (or news
+				// of other deaths) waiting, which a dead node must not act on.
+				this.messageQueue.clear();
+				break;
+			}
+			slot = this.messageQueue.poll(); // Next message
 		}
 	}
 	@Override
@@ -290,7 +596,13 @@ public class Node {
 	
 	@Override
 	public boolean equals(Object obj) {
+		if (!(obj instanceof Node)) return false;
 		Node n = (Node) obj;
 		return this.nodeId == n.nodeId;
 	}
+	
+	@Override
+	public int hashCode() {
+		return this.nodeId;
+	}
 }
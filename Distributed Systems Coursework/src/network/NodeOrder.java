@@ -0,0 +1,89 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * Orders nodes along a space filling curve over their positions, so that nodes close together in space are mostly
+ * close together in the order too. Positions are scaled to a grid of 2^BITS by 2^BITS cells over the nodes' bounding
+ * box, and nodes in the same cell keep their original order.
+ *
+ * MORTON   interleaves the bits of the cell's column and row (a Z-order curve). Cheap, but it jumps across the field
+ *          at the edges of each quadrant.
+ * HILBERT  follows a Hilbert curve, which only ever steps between neighbouring cells, so it keeps neighbours closer.
+ */
+public class NodeOrder {
+
+	public enum Curve {
+		MORTON, HILBERT
+	}
+
+	private static final int BITS = 15; // So a curve position and a node index fit in a long together
+
+	/**
+	 * @return the indices of the first n nodes, in order along the curve
+	 */
+	public static int[] sort(float[] positionX, float[] positionY, int n, Curve curve){
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < n; i++){
+			minX = Math.min(minX, positionX[i]);
+			minY = Math.min(minY, positionY[i]);
+			maxX = Math.max(maxX, positionX[i]);
+			maxY = Math.max(maxY, positionY[i]);
+		}
+		// The same scale on both axes, so the cells are square.
+		double extent = Math.max((double) maxX - minX, (double) maxY - minY);
+		double scale = (extent > 0) ? ((1 << BITS) - 1) / extent : 0;
+
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++){
+			int x = (int) ((positionX[i] - (double) minX) * scale);
+			int y = (int) ((positionY[i] - (double) minY) * scale);
+			long d = (curve == Curve.HILBERT) ? hilbert(x, y) : morton(x, y);
+			keys[i] = (d << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		for (int k = 0; k < n; k++) order[k] = (int) keys[k];
+		return order;
+	}
+
+	static long morton(int x, int y){
+		return spread(x) | (spread(y) << 1);
+	}
+
+	// Move bit b of v to bit 2b.
+	private static long spread(int v){
+		long x = v & 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
+	/**
+	 * @return the distance along the Hilbert curve through the 2^BITS by 2^BITS grid to cell (x, y)
+	 */
+	static long hilbert(int x, int y){
+		int side = 1 << BITS;
+		long d = 0;
+		for (int s = side / 2; s > 0; s /= 2){
+			int rx = ((x & s) > 0) ? 1 : 0;
+			int ry = ((y & s) > 0) ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			// Rotate the quadrant so that the curve through it starts and ends in the right corners.
+			if (ry == 0){
+				if (rx == 1){
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+}
@@ -0,0 +1,141 @@
+package network;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A set of nodes, such as a node's neighbours or tree nodes. Nodes are kept in the order they were added, and iterated
+ * and sent messages in that order, so the log is the same as with a list. Two nodes are the same if they have the same
+ * id, as in Node.equals().
+ *
+ * Small sets are scanned. Larger ones also have an open addressing table (with linear probing) from node id to
+ * position, so that contains() and add() take constant time however many neighbours a node has. remove() still has to
+ * shift the nodes after the one removed, but doesn't compare any of them.
+ */
+public class NodeSet extends AbstractList<Node> implements RandomAccess {
+
+	private static final int MAX_SCANNED = 8; // Sets up to this size have no table
+	private static final int INITIAL_CAPACITY = 4;
+	private static final int EMPTY = -1;
+
+	private Node[] elements;
+	private int size;
+	private int[] table; // Position of each node in elements, or EMPTY. null while the set is small.
+	private int mask;
+
+	public NodeSet(){
+		this.elements = new Node[INITIAL_CAPACITY];
+	}
+
+	@Override
+	public Node get(int i){
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+		return elements[i];
+	}
+
+	@Override
+	public int size(){
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o){
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public int indexOf(Object o){
+		if (!(o instanceof Node)) return -1;
+		int id = ((Node) o).nodeId;
+		if (table == null){
+			for (int i = 0; i < size; i++) if (elements[i].nodeId == id) return i;
+			return -1;
+		}
+		for (int slot = slot(id); table[slot] != EMPTY; slot = (slot + 1) & mask){
+			if (elements[table[slot]].nodeId == id) return table[slot];
+		}
+		return -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object o){
+		return indexOf(o); // Each node is in the set at most once
+	}
+
+	/**
+	 * Add the node at the end, unless the set already has it.
+	 *
+	 * @return false if the node was already in the set
+	 */
+	@Override
+	public boolean add(Node n){
+		if (indexOf(n) >= 0) return false;
+		if (size == elements.length){
+			Node[] grown = new Node[size * 2];
+			System.arraycopy(elements, 0, grown, 0, size);
+			elements = grown;
+		}
+		elements[size] = n;
+		size++;
+		if (table != null && size * 2 <= table.length){
+			insert(size - 1);
+		} else if (size > MAX_SCANNED){
+			rebuildTable();
+		}
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o){
+		int i = indexOf(o);
+		if (i < 0) return false;
+		remove(i);
+		return true;
+	}
+
+	@Override
+	public Node remove(int i){
+		Node removed = get(i);
+		System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+		size--;
+		elements[size] = null;
+		// Every node after the one removed has moved, so the table is built again. Nodes only leave a set when a
+		// neighbour dies.
+		if (table != null) rebuildTable();
+		modCount++;
+		return removed;
+	}
+
+	@Override
+	public void clear(){
+		for (int i = 0; i < size; i++) elements[i] = null;
+		size = 0;
+		table = null;
+		modCount++;
+	}
+
+	private void rebuildTable(){
+		if (size <= MAX_SCANNED){
+			table = null;
+			return;
+		}
+		// At most a quarter full, so it can grow to half full before being built again.
+		int capacity = Integer.highestOneBit(size * 4 - 1) << 1;
+		if (table == null || table.length != capacity) table = new int[capacity];
+		mask = capacity - 1;
+		for (int slot = 0; slot < capacity; slot++) table[slot] = EMPTY;
+		for (int i = 0; i < size; i++) insert(i);
+	}
+
+	private void insert(int i){
+		int slot = slot(elements[i].nodeId);
+		while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+		table[slot] = i;
+	}
+
+	private int slot(int id){
+		int h = id * 0x9E3779B9; // Spread consecutive ids over the table
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
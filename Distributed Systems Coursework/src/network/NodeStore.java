@@ -0,0 +1,69 @@
+package network;
+
+import java.util.Arrays;
+
+/**
+ * The state of a network's nodes that every phase reads, in primitive arrays indexed by node rather than in the Node
+ * objects: positions, energy, ranges, leaders and whether each node is alive. Nodes keep no copy of it, and read and
+ * write their own entries through their accessors (Node.isAlive(), Node.energyLevel() and so on), so the phases and
+ * every time step run on the store. A pass over one of these fields for every node reads along a single array.
+ *
+ * Liveness and leadership are kept in separate arrays, so that nodes stepped in parallel never write the same element.
+ */
+public class NodeStore {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	public int size;
+	public float[] positionX;
+	public float[] positionY;
+	public float[] energyLevel;
+	public float[] range;
+	public int[] leaderId;
+	public boolean[] alive;
+	public boolean[] leader;
+
+	public NodeStore(int capacity){
+		capacity = Math.max(capacity, INITIAL_CAPACITY);
+		this.positionX = new float[capacity];
+		this.positionY = new float[capacity];
+		this.energyLevel = new float[capacity];
+		this.range = new float[capacity];
+		this.leaderId = new int[capacity];
+		this.alive = new boolean[capacity];
+		this.leader = new boolean[capacity];
+	}
+
+	/**
+	 * Add an alive node that leads a fragment of its own.
+	 * @return the index of the new node
+	 */
+	public int addNode(int id, float posX, float posY, float energy, float nodeRange){
+		if (size == positionX.length){
+			int capacity = size * 2;
+			positionX = Arrays.copyOf(positionX, capacity);
+			positionY = Arrays.copyOf(positionY, capacity);
+			energyLevel = Arrays.copyOf(energyLevel, capacity);
+			range = Arrays.copyOf(range, capacity);
+			leaderId = Arrays.copyOf(leaderId, capacity);
+			alive = Arrays.copyOf(alive, capacity);
+			leader = Arrays.copyOf(leader, capacity);
+		}
+		positionX[size] = posX;
+		positionY[size] = posY;
+		energyLevel[size] = energy;
+		range[size] = nodeRange;
+		leaderId[size] = id;
+		alive[size] = true;
+		leader[size] = true;
+		return size++;
+	}
+
+	/**
+	 * @return the distance between nodes i and j, worked out as Network.distanceBetweenNodes() does
+	 */
+	public float distance(int i, int j){
+		double sqdist = Math.pow((positionX[i] - positionX[j]), 2.0) + Math.pow((positionY[i] - positionY[j]), 2.0);
+		return (float) Math.sqrt(sqdist);
+	}
+}
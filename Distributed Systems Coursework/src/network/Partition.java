@@ -0,0 +1,292 @@
+package network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simulator.Log;
+
+/**
+ * One worker process's share of a partitioned run (Run -partitions=<n>). Every worker holds all of the nodes and runs
+ * the same phases, but only steps the nodes of its own partition, and only acts for them in the phases (see
+ * Network.acts()). Neighbours, adjacency and trees are only built for its own nodes. At the end of each round it
+ * exchanges with the other workers, through the coordinator (PartitionCoordinator):
+ *
+ * > the messages sent to its nodes, in the order a single process would have sent them, and
+ * > the state of every node that was stepped or acted for, as far as other nodes and the phases read it: whether it is
+ *   alive and a leader, its leader's id and its candidate edges.
+ *
+ * Everything a worker sends, logs or prints is captured into segments, each with a key that gives its place in the
+ * single process order. Between rounds the key counts the actions of the phase, which every worker counts alike. In a
+ * round it is the index of the node being stepped. The coordinator merges the segments of every worker by key, so the
+ * log and console output are the same as in a single process. What every worker does alike (printing the statistics,
+ * or logging the leaders of each phase) is only kept by the first partition.
+ *
+ * Partitions only spread the CPU work of stepping the nodes, not the memory. Every worker (and the coordinator) reads
+ * the whole input and holds a Node for every node, so a partitioned run can't simulate a larger network than a single
+ * process can. Nor has one yet been faster than a single process (see PartitionBenchmark).
+ */
+public class Partition {
+
+	private static final long STEP_KEYS = 1L << 40; // The key of the segment for stepping node i is STEP_KEYS + i
+	static final int NUM_TYPES = Message.Type.values().length;
+
+	public int id;
+	public int numPartitions;
+	int[] owners; // The partition of each node, by index
+
+	private Network network;
+	private Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+
+	private List<Log.Entry> entries; // Everything logged or printed since the last exchange
+	private int numSegments;
+	private long[] segmentKeys;
+	private int[] segmentMessageEnds; // The end of each segment in the outbox
+	private int[] segmentEntryEnds;   // And in the entries
+	private long key; // Of the current segment
+	private boolean keep; // Whether the current segment is sent, or dropped
+	private int messageStart; // Where the current segment starts
+	private int entryStart;
+	private long clock; // Actions so far since the last exchange
+
+	private List<Node> touched; // Nodes whose state others may not know yet
+	private boolean[] isTouched;
+
+	public Partition(Network network, int id, int numPartitions){
+		this.network = network;
+		this.id = id;
+		this.numPartitions = numPartitions;
+		this.owners = owners(network.nodes, numPartitions);
+		this.entries = new ArrayList<Log.Entry>();
+		this.segmentKeys = new long[16];
+		this.segmentMessageEnds = new int[16];
+		this.segmentEntryEnds = new int[16];
+		this.touched = new ArrayList<Node>();
+		this.isTouched = new boolean[network.nodes.size()];
+	}
+
+	/**
+	 * Split the nodes into partitions of (almost) equal size along a Hilbert curve over their positions, so that each
+	 * partition covers one compact region of the field, and most edges stay inside a partition.
+	 * @return the partition of each node, by index
+	 */
+	public static int[] owners(List<Node> nodes, int numPartitions){
+		int n = nodes.size();
+		float[] positionX = new float[n];
+		float[] positionY = new float[n];
+		for (int i = 0; i < n; i++){
+			positionX[i] = nodes.get(i).positionX();
+			positionY[i] = nodes.get(i).positionY();
+		}
+		int[] order = NodeOrder.sort(positionX, positionY, n, NodeOrder.Curve.HILBERT);
+		int[] owners = new int[n];
+		for (int k = 0; k < n; k++) owners[order[k]] = (int) ((long) k * numPartitions / n);
+		return owners;
+	}
+
+	/**
+	 * Connect to the coordinator listening on the given port, and from then on capture everything logged or printed.
+	 */
+	public void connect(int port) throws IOException {
+		socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(id);
+		out.flush();
+
+		// Printed lines go through the log too, so they are captured in the order they are printed.
+		network.log.startCapture(entries);
+		begin(0, id == 0);
+	}
+
+	public boolean owns(Node n){
+		return owners[n.index] == id;
+	}
+
+	/**
+	 * Called by every worker for each action of a phase, in the same order.
+	 * @return true if this worker acts for the node, in which case acted() must be called once the action is done
+	 */
+	boolean acts(Node n){
+		if (owns(n)){
+			clock++;
+			begin(clock, true);
+			touch(n);
+			return true;
+		}
+		clock += 2;
+		begin(clock, id == 0);
+		return false;
+	}
+
+	void acted(){
+		clock++;
+		begin(clock, id == 0);
+	}
+
+	/**
+	 * Step this partition's nodes, exchange the messages sent with the other workers, and deliver those sent to this
+	 * partition's nodes.
+	 * @return the number of messages sent this round by every worker
+	 */
+	int executeRound(){
+		List<Node> nodes = network.nodes;
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			if (owners[i] == id && n.isAlive() && !n.messageQueue.isEmpty()){
+				begin(STEP_KEYS + i, true);
+				touch(n);
+				n.timestep();
+			}
+		}
+		end();
+
+		try {
+			send(false);
+			int numMessages = in.readInt();
+			long numDelivered = in.readLong();
+			long[] numDeliveredByType = new long[NUM_TYPES];
+			for (int t = 0; t < NUM_TYPES; t++) numDeliveredByType[t] = in.readLong();
+			for (int i = in.readInt(); i > 0; i--) readState(in, nodes);
+			MessageBus bus = network.bus;
+			bus.outbox.read(in);
+			// Only the messages to this partition's nodes are delivered here, but the counts are of every message.
+			long delivered = bus.numDelivered;
+			long[] deliveredByType = bus.numDeliveredByType.clone();
+			bus.deliver();
+			bus.numDelivered = delivered + numDelivered;
+			for (int t = 0; t < NUM_TYPES; t++){
+				bus.numDeliveredByType[t] = deliveredByType[t] + numDeliveredByType[t];
+			}
+			clock = 0;
+			begin(0, id == 0);
+			return numMessages;
+		} catch (IOException e) {
+			throw new RuntimeException("Lost the coordinator", e);
+		}
+	}
+
+	/**
+	 * Send the output captured since the last round, and disconnect.
+	 */
+	public void finish(){
+		end();
+		network.log.stopCapture();
+		try {
+			send(true);
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void touch(Node n){
+		if (!isTouched[n.index]){
+			isTouched[n.index] = true;
+			touched.add(n);
+		}
+	}
+
+	/**
+	 * End the current segment, and start one with the given key.
+	 * @param keep whether the new segment is sent to the coordinator
+	 */
+	private void begin(long key, boolean keep){
+		end();
+		this.key = key;
+		this.keep = keep;
+	}
+
+	private void end(){
+		int messageEnd = network.bus.outbox.size();
+		int entryEnd = entries.size();
+		if (!keep){
+			// Only the phases run here, which send no messages.
+			entries.subList(entryStart, entryEnd).clear();
+			entryEnd = entryStart;
+		} else if (messageEnd > messageStart || entryEnd > entryStart){
+			if (numSegments == segmentKeys.length){
+				segmentKeys = Arrays.copyOf(segmentKeys, numSegments * 2);
+				segmentMessageEnds = Arrays.copyOf(segmentMessageEnds, numSegments * 2);
+				segmentEntryEnds = Arrays.copyOf(segmentEntryEnds, numSegments * 2);
+			}
+			segmentKeys[numSegments] = key;
+			segmentMessageEnds[numSegments] = messageEnd;
+			segmentEntryEnds[numSegments] = entryEnd;
+			numSegments++;
+		}
+		messageStart = messageEnd;
+		entryStart = entryEnd;
+		keep = false;
+	}
+
+	/**
+	 * Send the segments, the messages and output in them, and the state of the touched nodes.
+	 */
+	private void send(boolean last) throws IOException {
+		out.writeBoolean(last);
+		out.writeInt(numSegments);
+		for (int s = 0; s < numSegments; s++){
+			out.writeLong(segmentKeys[s]);
+			out.writeInt(segmentMessageEnds[s]);
+			out.writeInt(segmentEntryEnds[s]);
+		}
+		network.bus.outbox.write(out);
+		Log.writeEntries(entries, out);
+		out.writeInt(touched.size());
+		for (Node n : touched){
+			writeState(n, out);
+			isTouched[n.index] = false;
+		}
+		out.flush();
+		touched.clear();
+		entries.clear();
+		numSegments = 0;
+		messageStart = 0;
+		entryStart = 0;
+	}
+
+	/**
+	 * Write what other nodes, and the phases, read of a node.
+	 */
+	static void writeState(Node n, DataOutputStream out) throws IOException {
+		out.writeInt(n.index);
+		out.writeBoolean(n.isAlive());
+		out.writeBoolean(n.isLeader());
+		out.writeInt(n.leaderId());
+		out.writeInt(n.candidateEdges.size());
+		for (Edge e : n.candidateEdges){
+			out.writeInt(e.left.index);
+			out.writeInt(e.right.index);
+			out.writeFloat(e.weight);
+		}
+	}
+
+	/**
+	 * Read the state written by writeState() into its node.
+	 * @return the node
+	 */
+	static Node readState(DataInputStream in, List<Node> nodes) throws IOException {
+		Node n = nodes.get(in.readInt());
+		n.setAlive(in.readBoolean());
+		n.setLeader(in.readBoolean());
+		n.setLeaderId(in.readInt());
+		n.candidateEdges.clear();
+		for (int i = in.readInt(); i > 0; i--){
+			Node left = nodes.get(in.readInt());
+			Node right = nodes.get(in.readInt());
+			n.candidateEdges.add(new Edge(left, right, in.readFloat()));
+		}
+		return n;
+	}
+}
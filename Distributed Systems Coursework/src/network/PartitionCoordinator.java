@@ -0,0 +1,209 @@
+package network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import simulator.Log;
+
+/**
+ * Runs a simulation split over several worker processes (see Partition), and stands between them at the end of each
+ * round. It merges the segments every worker sent into the order a single process would have produced them in,
+ * writes their output to the log and the console in that order, and routes each message to the worker that owns its
+ * receiver. It also counts the messages delivered, and tells every worker how many were sent, which is how they all
+ * know when the network is quiet, as waitForExecution() does in a single process.
+ *
+ * The workers are copies of Run, with the same arguments, talking to the coordinator over a socket on the loopback
+ * interface. The coordinator keeps its own copy of the nodes, for the log and to know which senders are alive.
+ */
+public class PartitionCoordinator {
+
+	private Network network;
+	private int numPartitions;
+	private int[] owners;
+
+	private Process[] processes;
+	private DataInputStream[] in;
+	private DataOutputStream[] out;
+
+	// What each worker sent at the end of the round
+	private int[] numSegments;
+	private long[][] segmentKeys;
+	private int[][] segmentMessageEnds;
+	private int[][] segmentEntryEnds;
+	private MessageBuffer[] sent;
+	private List<List<Log.Entry>> entries;
+	private List<List<Node>> states;
+	// And what is sent back to each
+	private MessageBuffer[] received;
+
+	public PartitionCoordinator(Network network, int numPartitions){
+		this.network = network;
+		this.numPartitions = numPartitions;
+		this.owners = Partition.owners(network.nodes, numPartitions);
+		this.processes = new Process[numPartitions];
+		this.in = new DataInputStream[numPartitions];
+		this.out = new DataOutputStream[numPartitions];
+		this.numSegments = new int[numPartitions];
+		this.segmentKeys = new long[numPartitions][];
+		this.segmentMessageEnds = new int[numPartitions][];
+		this.segmentEntryEnds = new int[numPartitions][];
+		this.sent = new MessageBuffer[numPartitions];
+		this.received = new MessageBuffer[numPartitions];
+		this.entries = new ArrayList<List<Log.Entry>>();
+		this.states = new ArrayList<List<Node>>();
+		for (int p = 0; p < numPartitions; p++){
+			sent[p] = new MessageBuffer();
+			received[p] = new MessageBuffer();
+			entries.add(new ArrayList<Log.Entry>());
+			states.add(new ArrayList<Node>());
+		}
+	}
+
+	/**
+	 * Start a worker for each partition, running the main class with the given arguments, and serve them until they
+	 * have all finished.
+	 * @param workerOption the option that tells a worker its partition and the coordinator's port, which is followed by
+	 * "<partition>:<port>"
+	 * @return the highest exit status of the workers
+	 */
+	public int run(Class<?> mainClass, String[] args, String workerOption) throws IOException {
+		ServerSocket server = new ServerSocket(0, numPartitions, InetAddress.getLoopbackAddress());
+		try {
+			for (int p = 0; p < numPartitions; p++){
+				List<String> command = new ArrayList<String>();
+				command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+				command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(mainClass.getName());
+				for (String arg : args) command.add(arg);
+				command.add(workerOption + p + ":" + server.getLocalPort());
+				ProcessBuilder builder = new ProcessBuilder(command);
+				// Workers send their output here. Anything printed before they connect is printed here too.
+				builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+				builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+				processes[p] = builder.start();
+			}
+			for (int i = 0; i < numPartitions; i++){
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int p = input.readInt();
+				in[p] = input;
+				out[p] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			}
+			serve();
+		} catch (IOException e) {
+			for (Process p : processes) if (p != null) p.destroy();
+			throw e;
+		} finally {
+			server.close();
+		}
+
+		int status = 0;
+		for (Process p : processes){
+			try {
+				status = Math.max(status, p.waitFor());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Exchange the messages of every round, until the workers send their last output.
+	 */
+	private void serve() throws IOException {
+		while (true){
+			// Deaths this round are read into our nodes before the messages are counted, as they are known when a
+			// single process delivers them.
+			boolean last = false;
+			for (int p = 0; p < numPartitions; p++) last |= receive(p);
+			int numMessages = 0;
+			long numDelivered = 0;
+			long[] numDeliveredByType = new long[Partition.NUM_TYPES];
+			for (int p = 0; p < numPartitions; p++) received[p].clear();
+
+			// Merge the segments by key. Only one worker has a segment with any given key.
+			int[] next = new int[numPartitions];
+			while (true){
+				int first = -1;
+				for (int p = 0; p < numPartitions; p++){
+					if (next[p] == numSegments[p]) continue;
+					if (first < 0 || segmentKeys[p][next[p]] < segmentKeys[first][next[first]]) first = p;
+				}
+				if (first < 0) break;
+				int s = next[first]++;
+				int entryStart = (s == 0) ? 0 : segmentEntryEnds[first][s - 1];
+				network.log.replay(entries.get(first), entryStart, segmentEntryEnds[first][s]);
+				int messageStart = (s == 0) ? 0 : segmentMessageEnds[first][s - 1];
+				MessageBuffer messages = sent[first];
+				for (int slot = messageStart; slot < segmentMessageEnds[first][s]; slot++){
+					received[owners[messages.receiver(slot)]].addFrom(messages, slot);
+					numMessages++;
+					// As MessageBus.deliver() counts them
+					Message.Type type = messages.type(slot);
+					if (network.nodes.get(messages.sender(slot)).isAlive() || type == Message.Type.NODE_DOWN){
+						numDelivered++;
+						numDeliveredByType[type.ordinal()]++;
+					}
+				}
+			}
+			if (last) return;
+
+			for (int p = 0; p < numPartitions; p++){
+				DataOutputStream o = out[p];
+				o.writeInt(numMessages);
+				o.writeLong(numDelivered);
+				for (long n : numDeliveredByType) o.writeLong(n);
+				int numStates = 0;
+				for (int q = 0; q < numPartitions; q++) if (q != p) numStates += states.get(q).size();
+				o.writeInt(numStates);
+				for (int q = 0; q < numPartitions; q++){
+					if (q != p) for (Node n : states.get(q)) Partition.writeState(n, o);
+				}
+				received[p].write(o);
+				o.flush();
+			}
+		}
+	}
+
+	/**
+	 * Read what a worker sent at the end of a round, and the state of the nodes it touched into our nodes.
+	 * @return true if it was the worker's last output
+	 */
+	private boolean receive(int p) throws IOException {
+		DataInputStream i = in[p];
+		boolean last = i.readBoolean();
+		int n = i.readInt();
+		numSegments[p] = n;
+		if (segmentKeys[p] == null || segmentKeys[p].length < n){
+			segmentKeys[p] = new long[Math.max(n, 16)];
+			segmentMessageEnds[p] = new int[Math.max(n, 16)];
+			segmentEntryEnds[p] = new int[Math.max(n, 16)];
+		}
+		for (int s = 0; s < n; s++){
+			segmentKeys[p][s] = i.readLong();
+			segmentMessageEnds[p][s] = i.readInt();
+			segmentEntryEnds[p][s] = i.readInt();
+		}
+		sent[p].read(i);
+		entries.get(p).clear();
+		Log.readEntries(i, network.nodes, entries.get(p));
+		List<Node> s = states.get(p);
+		s.clear();
+		for (int k = i.readInt(); k > 0; k--) s.add(Partition.readState(i, network.nodes));
+		return last;
+	}
+}
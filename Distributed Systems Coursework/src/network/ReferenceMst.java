@@ -0,0 +1,155 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The minimum spanning forest of the alive nodes over their discovered edges, worked out centrally with Kruskal's
+ * algorithm, to check the distributed algorithms against.
+ *
+ * Every edge is stored once, in primitive arrays, and sorted once. Edges of equal weight are ordered by the index of
+ * their lower endpoint and then of their higher endpoint, which makes the forest unique.
+ */
+public class ReferenceMst {
+
+	// The weights are added in a different order, so their totals can differ by rounding.
+	private static final double WEIGHT_TOLERANCE = 1e-9;
+
+	public int numEdges;
+	public int[] left;   // Lower node index of each edge in the forest
+	public int[] right;  // Higher node index
+	public float[] weight;
+	public double totalWeight;
+
+	public ReferenceMst(List<Node> nodes){
+		// Number the edges in order of their lower and then higher endpoint, so that sorting by weight and then by
+		// number gives the order above.
+		int numCandidates = 0;
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			if (!n.isAlive() || n.indexedNeighbours == null) continue;
+			for (int j : n.indexedNeighbours) if (j > i && nodes.get(j).isAlive()) numCandidates++;
+		}
+		int[] from = new int[numCandidates];
+		int[] to = new int[numCandidates];
+		long[] keys = new long[numCandidates];
+		int e = 0;
+		for (int i = 0; i < nodes.size(); i++){
+			Node n = nodes.get(i);
+			if (!n.isAlive() || n.indexedNeighbours == null) continue;
+			for (int k = 0; k < n.indexedNeighbours.length; k++){
+				int j = n.indexedNeighbours[k];
+				if (j > i && nodes.get(j).isAlive()){
+					from[e] = i;
+					to[e] = j;
+					// Weights are never negative, so their bit patterns sort in the same order as the weights.
+					keys[e] = ((long) Float.floatToIntBits(n.indexedWeights[k]) << 32) | e;
+					e++;
+				}
+			}
+		}
+		Arrays.sort(keys);
+
+		UnionFind sets = new UnionFind(nodes.size());
+		this.left = new int[Math.max(0, nodes.size() - 1)];
+		this.right = new int[left.length];
+		this.weight = new float[left.length];
+		for (long key : keys){
+			int edge = (int) key;
+			if (sets.union(from[edge], to[edge])){
+				left[numEdges] = from[edge];
+				right[numEdges] = to[edge];
+				weight[numEdges] = Float.intBitsToFloat((int) (key >>> 32));
+				totalWeight += weight[numEdges];
+				numEdges++;
+			}
+		}
+	}
+
+	/**
+	 * How the alive nodes' tree edges differ from the reference forest.
+	 */
+	public static class Comparison {
+		public int numTreeEdges;
+		public double treeWeight;
+		public int numReferenceEdges;
+		public double referenceWeight;
+		public List<Edge> missing; // In the reference forest but not in the trees
+		public List<Edge> extra;   // In the trees but not in the reference forest
+		public List<Edge> cycles;  // Tree edges that close a cycle
+		public List<Edge> oneSided; // Tree edges only one of their nodes has, from that node
+
+		private Comparison(){
+			this.missing = new ArrayList<Edge>();
+			this.extra = new ArrayList<Edge>();
+			this.cycles = new ArrayList<Edge>();
+			this.oneSided = new ArrayList<Edge>();
+		}
+
+		/**
+		 * @return true if the trees are a spanning forest of the same weight as the reference. With edges of equal
+		 * weight, that can still be a different set of edges.
+		 */
+		public boolean isMinimal(){
+			return cycles.isEmpty() && oneSided.isEmpty() && numTreeEdges == numReferenceEdges
+					&& Math.abs(treeWeight - referenceWeight) <= WEIGHT_TOLERANCE * Math.max(1, referenceWeight);
+		}
+
+		public boolean sameEdges(){
+			return missing.isEmpty() && extra.isEmpty();
+		}
+	}
+
+	/**
+	 * Compare the alive nodes' tree edges with this forest.
+	 */
+	public Comparison compare(List<Node> nodes){
+		Comparison c = new Comparison();
+		c.numReferenceEdges = numEdges;
+		c.referenceWeight = totalWeight;
+		Set<Long> edges = new HashSet<Long>();
+		for (int e = 0; e < numEdges; e++) edges.add(((long) left[e] << 32) | right[e]);
+
+		// Every tree edge is walked from both of its nodes, so an edge only one of them has is found whichever it is.
+		UnionFind sets = new UnionFind(nodes.size());
+		Set<Long> treeEdges = new HashSet<Long>(); // By lower and then higher index
+		Set<Long> held = new HashSet<Long>();      // By the index of the node that has it, then of the other
+		List<Edge> walked = new ArrayList<Edge>();
+		for (Node n : nodes){
+			if (!n.isAlive()) continue;
+			for (Node m : n.treeNodes){
+				if (!m.isAlive()) continue;
+				held.add(((long) n.index << 32) | m.index);
+				long key = ((long) Math.min(n.index, m.index) << 32) | Math.max(n.index, m.index);
+				// Count an edge listed twice, or by both of its nodes, once.
+				if (!treeEdges.add(key)) continue;
+				Edge edge = new Edge(n, m);
+				walked.add(edge);
+				c.numTreeEdges++;
+				c.treeWeight += edge.weight;
+				if (!sets.union(n.index, m.index)) c.cycles.add(edge);
+				if (!edges.contains(key)) c.extra.add(edge);
+			}
+		}
+		for (Edge edge : walked){
+			if (!held.contains(((long) edge.right.index << 32) | edge.left.index)) c.oneSided.add(edge);
+		}
+		for (int e = 0; e < numEdges; e++){
+			if (!treeEdges.contains(((long) left[e] << 32) | right[e])){
+				c.missing.add(new Edge(nodes.get(left[e]), nodes.get(right[e]), weight[e]));
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return true if the alive nodes' tree edges are exactly the edges of this forest
+	 */
+	public boolean matches(List<Node> nodes){
+		Comparison c = compare(nodes);
+		return c.sameEdges() && c.numTreeEdges == numEdges;
+	}
+}
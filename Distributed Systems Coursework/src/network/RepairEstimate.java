@@ -0,0 +1,81 @@
+package network;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Estimates what an incremental MST repair saves over rebuilding the whole MST.
+ * A full rebuild would also poll every fragment untouched by the node deaths in every phase: the leader floods
+ * FIND_MWOE through its tree, every other node tests all of its alive neighbours (or, when edges are classified, its
+ * basic edges one at a time until one is accepted), and in each merge the new leader is flooded through the tree
+ * again. The costs of this are worked out from the shape of the untouched trees.
+ */
+class RepairEstimate {
+
+	// Per phase, for all untouched fragments together.
+	private long edgeFindMessages;
+	private long leaderChangeMessages;
+	private int edgeFindRounds;
+	private int leaderChangeRounds;
+
+	int numFragments;
+	int savedRounds;
+	long savedMessages;
+
+	RepairEstimate(List<Node> untouchedLeaders, Network network){
+		this.numFragments = untouchedLeaders.size();
+		boolean convergecast = (network.reportMode == Network.ReportMode.CONVERGECAST);
+		boolean[] visited = new boolean[network.nodes.size()];
+		int[] depth = new int[network.nodes.size()];
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		for (Node leader : untouchedLeaders){
+			// Breadth first search of the tree, to find its size, its depth below the leader and how many tests its
+			// nodes would send.
+			int size = 0;
+			int maxDepth = 0;
+			long tests = 0;
+			int maxTested = 0; // When edges are tested one at a time, the round the last node gets its last reply
+			visited[leader.index] = true;
+			depth[leader.index] = 0;
+			queue.add(leader);
+			while (!queue.isEmpty()){
+				Node n = queue.poll();
+				size++;
+				maxDepth = Math.max(maxDepth, depth[n.index]);
+				if (n != leader){
+					int numTests = n.numTests();
+					tests += numTests;
+					if (network.classifyEdges) maxTested = Math.max(maxTested, depth[n.index] + 2 * numTests);
+				}
+				for (Node m : n.treeNodes){
+					if (m.isAlive() && !visited[m.index]){
+						visited[m.index] = true;
+						depth[m.index] = depth[n.index] + 1;
+						queue.add(m);
+					}
+				}
+			}
+
+			this.edgeFindMessages += (size - 1) + 2 * tests + (convergecast ? size - 1 : 0);
+			this.leaderChangeMessages += size - 1;
+			if (size > 1){
+				// FIND_MWOE reaches the deepest node after maxDepth rounds, then its tests and replies take two more
+				// (or longer, if each test waits for the one before), plus the final round with no messages. A
+				// convergecast then has to climb back up the tree.
+				int rounds = Math.max(maxDepth + 3, maxTested + 1) + (convergecast ? maxDepth : 0);
+				this.edgeFindRounds = Math.max(this.edgeFindRounds, rounds);
+				this.leaderChangeRounds = Math.max(this.leaderChangeRounds, maxDepth + 1);
+			}
+		}
+	}
+
+	void edgeFindDone(int rounds){
+		savedRounds += Math.max(0, edgeFindRounds - rounds);
+		savedMessages += edgeFindMessages;
+	}
+
+	void leaderChangeDone(int rounds){
+		savedRounds += Math.max(0, leaderChangeRounds - rounds);
+		savedMessages += leaderChangeMessages;
+	}
+}
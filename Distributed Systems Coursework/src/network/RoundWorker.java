@@ -0,0 +1,55 @@
+package network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import simulator.Log;
+
+/**
+ * Executes the time step of a contiguous range of nodes during a parallel round.
+ * Messages and log output are kept in the worker's own buffers, and the network merges the buffers in range order
+ * at the end of the round, which gives exactly the order the sequential loop would have produced. Each worker also
+ * has its own message to read the nodes' inboxes into.
+ */
+class RoundWorker implements Callable<Void> {
+
+	private List<Node> nodes;
+	private Log log;
+	int from;
+	int to;
+
+	MessageBuffer outbox;
+	List<Log.Entry> logBuffer;
+	private Message cursor;
+	private Edge cursorEdge;
+
+	RoundWorker(List<Node> nodes, Log log, int from, int to){
+		this.nodes = nodes;
+		this.log = log;
+		this.from = from;
+		this.to = to;
+		this.outbox = new MessageBuffer();
+		this.logBuffer = new ArrayList<Log.Entry>();
+		this.cursor = new Message();
+		this.cursorEdge = new Edge(null, null, 0);
+	}
+
+	@Override
+	public Void call(){
+		log.startCapture(logBuffer);
+		try {
+			for (int i = from; i < to; i++){
+				Node n = nodes.get(i);
+				if (n.isAlive()){
+					n.outbox = this.outbox;
+					n.timestep(cursor, cursorEdge);
+					n.outbox = null;
+				}
+			}
+		} finally {
+			log.stopCapture();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,127 @@
+package network;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid over node positions, used to find the nodes that may be in range of a node without testing every
+ * pair in the network. Cells are at least as wide as the largest node range, so every node in range of a node lies
+ * in the 3x3 block of cells around it.
+ */
+public class SpatialGrid {
+
+	// Keep the number of cells proportional to the number of nodes, no matter how sparse the field is.
+	private static final int CELLS_PER_NODE = 2;
+	// Cells are made slightly wider than the range so rounding in distances and cell lookups can never lose a pair.
+	private static final double CELL_MARGIN = 1.0001;
+
+	private float minX;
+	private float minY;
+	private double cellSize;
+	private int cols;
+	private int rows;
+
+	private int[] nodeCell;  // Cell of each node, by index in the node list
+	private int[] cellStart; // Nodes of cell c are cellNodes[cellStart[c]] .. cellNodes[cellStart[c+1] - 1]
+	private int[] cellNodes; // Node indices grouped by cell, ascending within each cell
+
+	private int[] candidates;
+	private int numCandidates;
+
+	public SpatialGrid(List<Node> nodes){
+		int n = nodes.size();
+		float maxRange = 0;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		this.minX = Float.MAX_VALUE;
+		this.minY = Float.MAX_VALUE;
+		for (Node node : nodes){
+			maxRange = Math.max(maxRange, node.range());
+			minX = Math.min(minX, node.positionX());
+			minY = Math.min(minY, node.positionY());
+			maxX = Math.max(maxX, node.positionX());
+			maxY = Math.max(maxY, node.positionY());
+		}
+		if (n == 0){
+			minX = minY = maxX = maxY = 0;
+		}
+
+		// Cells must be at least as wide as the range. Widen them if the field would need too many cells.
+		double width = (double) maxX - minX;
+		double height = (double) maxY - minY;
+		double size = Math.max(maxRange, Float.MIN_NORMAL) * CELL_MARGIN;
+		double maxCells = Math.max(1.0, (double) n * CELLS_PER_NODE);
+		if ((width / size + 1) * (height / size + 1) > maxCells){
+			size = Math.max(size, Math.sqrt(width * height / maxCells));
+			size = Math.max(size, Math.max(width, height) / maxCells);
+		}
+		this.cellSize = size;
+		this.cols = (int) (width / cellSize) + 1;
+		this.rows = (int) (height / cellSize) + 1;
+
+		// Counting sort of node indices by cell.
+		this.nodeCell = new int[n];
+		this.cellStart = new int[cols * rows + 1];
+		this.cellNodes = new int[n];
+		for (int i = 0; i < n; i++){
+			Node node = nodes.get(i);
+			int c = cellOf(column(node.positionX()), row(node.positionY()));
+			nodeCell[i] = c;
+			cellStart[c + 1]++;
+		}
+		for (int c = 0; c < cols * rows; c++){
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] fill = Arrays.copyOf(cellStart, cols * rows);
+		for (int i = 0; i < n; i++){
+			cellNodes[fill[nodeCell[i]]++] = i;
+		}
+
+		this.candidates = new int[16];
+		this.numCandidates = 0;
+	}
+
+	/**
+	 * Collects the indices of all nodes in the 3x3 block of cells around node i, excluding i itself.
+	 * The candidates are sorted by index, so they are visited in the same order as the node list.
+	 * @return the number of candidates, which can be read with candidate(k)
+	 */
+	public int collectCandidates(int i){
+		numCandidates = 0;
+		int cell = nodeCell[i];
+		int col = cell % cols;
+		int row = cell / cols;
+		for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++){
+			for (int c = Math.max(0, col - 1); c <= Math.min(cols - 1, col + 1); c++){
+				int cc = cellOf(c, r);
+				for (int k = cellStart[cc]; k < cellStart[cc + 1]; k++){
+					if (cellNodes[k] != i) addCandidate(cellNodes[k]);
+				}
+			}
+		}
+		Arrays.sort(candidates, 0, numCandidates);
+		return numCandidates;
+	}
+
+	public int candidate(int k){
+		return candidates[k];
+	}
+
+	private void addCandidate(int index){
+		if (numCandidates == candidates.length){
+			candidates = Arrays.copyOf(candidates, candidates.length * 2);
+		}
+		candidates[numCandidates++] = index;
+	}
+
+	private int column(float x){
+		return Math.min(cols - 1, (int) (((double) x - minX) / cellSize));
+	}
+
+	private int row(float y){
+		return Math.min(rows - 1, (int) (((double) y - minY) / cellSize));
+	}
+
+	private int cellOf(int col, int row){
+		return row * cols + col;
+	}
+}
@@ -0,0 +1,42 @@
+package network;
+
+/**
+ * Disjoint sets of node indices, with union by rank and path halving.
+ */
+class UnionFind {
+
+	private int[] parent;
+	private byte[] rank;
+
+	UnionFind(int size){
+		this.parent = new int[size];
+		this.rank = new byte[size];
+		for (int i = 0; i < size; i++) parent[i] = i;
+	}
+
+	int find(int i){
+		while (parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * @return false if i and j were already in the same set
+	 */
+	boolean union(int i, int j){
+		int a = find(i);
+		int b = find(j);
+		if (a == b) return false;
+		if (rank[a] < rank[b]){
+			parent[a] = b;
+		} else if (rank[a] > rank[b]){
+			parent[b] = a;
+		} else {
+			parent[b] = a;
+			rank[a]++;
+		}
+		return true;
+	}
+}
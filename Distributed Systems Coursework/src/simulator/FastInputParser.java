@@ -0,0 +1,217 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import network.Network;
+
+/**
+ * Reads the same input files as InputParser, but memory-maps the file and reads numbers straight from its bytes,
+ * without building a string for each line or token. Files larger than the mapping window are mapped a window at a
+ * time.
+ *
+ * Numbers are parsed to exactly the same values as Integer.parseInt and Float.parseFloat. A decimal whose digits fit
+ * in a double's mantissa, and whose power of ten is exact as a double, is computed with a single division or
+ * multiplication, which gives the correctly rounded double. That is rounded again to a float, which only differs from
+ * rounding the decimal straight to a float when the double lands exactly halfway between two floats. Those numbers,
+ * and anything else (long mantissas, large exponents, and so on), are handed to Float.parseFloat.
+ */
+public class FastInputParser {
+
+	private static final long WINDOW = 1L << 30;
+	private static final int MAX_TOKENS = 5;
+	private static final long MAX_FAST_MANTISSA = 1L << 53;
+	// Powers of ten up to this are exact doubles.
+	private static final int MAX_POWER_OF_TEN = 22;
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	// The bits of a double's mantissa below a float's mantissa, and their value when the double is halfway between
+	// two floats.
+	private static final long FLOAT_ROUNDING_BITS = (1L << 29) - 1;
+	private static final long FLOAT_HALFWAY = 1L << 28;
+
+	private MappedByteBuffer buffer;
+	private int numTokens;
+	private int[] tokenStart;
+	private int[] tokenEnd;
+
+	private Network outputNetwork;
+	private float nodeRange;
+
+	private FastInputParser(Network outputNetwork, float nodeRange){
+		this.outputNetwork = outputNetwork;
+		this.nodeRange = nodeRange;
+		this.tokenStart = new int[MAX_TOKENS];
+		this.tokenEnd = new int[MAX_TOKENS];
+	}
+
+	public static Network buildNetwork(String filepath, float nodeRange){
+		Network outputNetwork = new Network();
+		FastInputParser parser = new FastInputParser(outputNetwork, nodeRange);
+
+		try {
+			FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ);
+			long size = channel.size();
+			long position = 0;
+			while (position < size){
+				long length = Math.min(WINDOW, size - position);
+				parser.buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				int consumed = parser.parseLines((int) length, position + length == size);
+				if (consumed == 0){
+					channel.close();
+					throw new IOException("Line longer than " + WINDOW + " bytes in " + filepath);
+				}
+				position += consumed;
+			}
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return outputNetwork;
+	}
+
+	/**
+	 * Parse every complete line in the mapped window. The last line only counts as complete if the window runs to the
+	 * end of the file.
+	 * @return the number of bytes parsed, so the next window can start at the first incomplete line
+	 */
+	private int parseLines(int length, boolean endOfFile){
+		int lineStart = 0;
+		while (lineStart < length){
+			int lineEnd = lineStart;
+			while (lineEnd < length && buffer.get(lineEnd) != '\n') lineEnd++;
+			if (lineEnd == length && !endOfFile) break;
+
+			parseLine(lineStart, lineEnd);
+			lineStart = lineEnd + 1;
+		}
+		return Math.min(lineStart, length);
+	}
+
+	private void parseLine(int start, int end){
+		// Commas and spaces separate the tokens, and a line may end in a carriage return.
+		numTokens = 0;
+		int i = start;
+		while (i < end){
+			byte b = buffer.get(i);
+			if (b == ' ' || b == ',' || b == '\r'){
+				i++;
+				continue;
+			}
+			int tokenFrom = i;
+			while (i < end && (b = buffer.get(i)) != ' ' && b != ',' && b != '\r') i++;
+			if (numTokens < MAX_TOKENS){
+				tokenStart[numTokens] = tokenFrom;
+				tokenEnd[numTokens] = i;
+			}
+			numTokens++;
+		}
+		if (numTokens == 0) return;
+
+		if (tokenEquals(0, "node")){
+			requireTokens(5, start, end);
+			int nodeId = parseInt(1);
+			float posX = parseFloat(2);
+			float posY = parseFloat(3);
+			float energy = parseFloat(4);
+			outputNetwork.addNode(nodeId, posX, posY, energy, nodeRange);
+		} else if (tokenEquals(0, "bcst")){
+			requireTokens(3, start, end);
+			outputNetwork.addBroadcast(parseInt(2));
+		} else {
+			outputNetwork.minimumEnergy = parseFloat(0);
+		}
+	}
+
+	private void requireTokens(int n, int start, int end){
+		if (numTokens < n){
+			throw new NumberFormatException("Expected " + n + " values in line: " + string(start, end));
+		}
+	}
+
+	private boolean tokenEquals(int token, String s){
+		if (tokenEnd[token] - tokenStart[token] != s.length()) return false;
+		for (int i = 0; i < s.length(); i++){
+			if (buffer.get(tokenStart[token] + i) != s.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private int parseInt(int token){
+		int start = tokenStart[token];
+		int end = tokenEnd[token];
+		boolean negative = (buffer.get(start) == '-');
+		int i = (negative || buffer.get(start) == '+') ? start + 1 : start;
+		// Nine digits can't overflow an int.
+		if (i == end || end - i > 9) return Integer.parseInt(string(start, end));
+		int value = 0;
+		for (; i < end; i++){
+			int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9) return Integer.parseInt(string(start, end));
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	private float parseFloat(int token){
+		int start = tokenStart[token];
+		int end = tokenEnd[token];
+		boolean negative = (buffer.get(start) == '-');
+		int i = (negative || buffer.get(start) == '+') ? start + 1 : start;
+		long mantissa = 0;
+		int numDigits = 0;
+		int decimals = -1; // Digits after the point, or -1 before the point
+		for (; i < end; i++){
+			byte b = buffer.get(i);
+			if (b == '.' && decimals < 0){
+				decimals = 0;
+			} else if (b >= '0' && b <= '9'){
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa >= MAX_FAST_MANTISSA) return Float.parseFloat(string(start, end));
+				numDigits++;
+				if (decimals >= 0) decimals++;
+			} else {
+				break;
+			}
+		}
+		int exponent = -Math.max(decimals, 0);
+		if (i < end && (buffer.get(i) == 'E' || buffer.get(i) == 'e')){
+			int exponentStart = ++i;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) i++;
+			if (i == end || end - i > 3) return Float.parseFloat(string(start, end));
+			int e = 0;
+			for (; i < end; i++){
+				int digit = buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) return Float.parseFloat(string(start, end));
+				e = e * 10 + digit;
+			}
+			exponent += (buffer.get(exponentStart) == '-') ? -e : e;
+		}
+		if (i < end || numDigits == 0 || exponent < -MAX_POWER_OF_TEN || exponent > MAX_POWER_OF_TEN){
+			return Float.parseFloat(string(start, end));
+		}
+
+		// Both operands are exact, so this is the correctly rounded double.
+		double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		// Rounding that to a float gives the correctly rounded float, unless it lands exactly halfway between two
+		// floats, or outside the range of normal floats.
+		if ((Double.doubleToRawLongBits(value) & FLOAT_ROUNDING_BITS) == FLOAT_HALFWAY
+				|| (value != 0 && (value < Float.MIN_NORMAL || value > Float.MAX_VALUE))){
+			return Float.parseFloat(string(start, end));
+		}
+		return negative ? (float) -value : (float) value;
+	}
+
+	private String string(int start, int end){
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++) bytes[i - start] = buffer.get(i);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
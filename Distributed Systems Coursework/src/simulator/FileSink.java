@@ -0,0 +1,55 @@
+package simulator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes the log to a file. The file (and its directory) is only created once the first line is written.
+ */
+public class FileSink implements LogSink {
+
+	private File outputFile;
+	private BufferedWriter writer;
+
+	public FileSink(String filepath){
+		this.outputFile = new File(filepath);
+	}
+
+	@Override
+	public void write(String line){
+		try {
+			if (writer == null){
+				File parent = outputFile.getAbsoluteFile().getParentFile();
+				if (parent != null) parent.mkdirs();
+				writer = new BufferedWriter(new FileWriter(outputFile));
+			}
+			writer.write(line);
+			writer.write('\n');
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void flush(){
+		if (writer == null) return;
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close(){
+		if (writer == null) return;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		writer = null;
+	}
+}
@@ -35,7 +35,7 @@ public class InputParser {
 					outputNetwork.addBroadcast(nId);
 					break;
 				default:
-					Network.minimumEnergy = Float.parseFloat(st[0]);
+					outputNetwork.minimumEnergy = Float.parseFloat(st[0]);
 				}
 				
 				// Read next line
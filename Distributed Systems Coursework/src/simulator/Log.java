@@ -1,80 +1,345 @@
 package simulator;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import network.Edge;
 import network.Node;
 
 /**
- * Used for logging data to the output file. File will be generated in ./output/log.txt
+ * Used for logging data to the output file. By default the file will be generated in ./output/log.txt, but the lines
+ * can be sent to any sink.
+ *
+ * A synchronous log writes each line to its sink as it is logged, and flushes it straight away. An asynchronous log
+ * puts the lines on a bounded queue instead, and a background thread writes them to the sink in batches, flushing once
+ * per batch. If the writer falls behind, logging blocks until there is room on the queue. An asynchronous log must be
+ * closed, or lines still on the queue may never reach the sink.
  */
 public class Log {
 
-    public static boolean shouldWrite = true;
-
-	private static BufferedWriter writer;
-	private static File outputFile = new File("output/log.txt");
-	private static List<Edge> writtenEdges = new ArrayList<Edge>();
-
-	private static void write(String s){
-        if (shouldWrite){
-            if (writer == null){
-                try {
-                    if (!outputFile.exists()){
-                        outputFile.getParentFile().mkdirs();
-                        outputFile.createNewFile();
-                    }
-                    writer = new BufferedWriter(new FileWriter("output/log.txt"));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            try {
-                writer.write(s + "\n");
-                writer.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-	}
-	
-	public static void writeBs(List<Node> nodes){
-		String s = ""+nodes.get(0).nodeId;
+	public static final String DEFAULT_PATH = "output/log.txt";
+	public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+	// The writer thread stops when it takes this from the queue. It is compared by identity.
+	private static final String END = new String("end");
+
+	public boolean shouldWrite = true;
+	public boolean console = true; // Whether print() writes to the console; the log file is written either way
+	public TraceWriter trace; // Also record everything written to a binary trace, if set
+
+	private LogSink sink;
+	private BlockingQueue<String> queue; // null for a synchronous log
+	private Thread writerThread;
+	private Set<Edge> writtenEdges = new HashSet<Edge>();
+
+	// While a thread is capturing, its output is buffered instead of written, so that output from nodes stepped in
+	// parallel (or in other processes) can be replayed in node order once every worker has finished.
+	private ThreadLocal<List<Entry>> capture = new ThreadLocal<List<Entry>>();
+
+	public static class Entry {
+		private static final int PRINT = 0;
+		private static final int TEXT = 1;
+		private static final int EDGE = 2;
+		private static final int DATA = 3;
+		private static final int NODE_DOWN = 4;
+
+		private int kind;
+		private String text;
+		private Edge edge;
+		private Node from;
+		private Node to;
+		private float energy;
+		private boolean shouldWrite; // Whether the log was being written when this was captured
+
+		private Entry(int kind, String text, Edge edge, Node from, Node to, float energy, boolean shouldWrite){
+			this.kind = kind;
+			this.text = text;
+			this.edge = edge;
+			this.from = from;
+			this.to = to;
+			this.energy = energy;
+			this.shouldWrite = shouldWrite;
+		}
+	}
+
+	/**
+	 * Create a synchronous log.
+	 */
+	public Log(LogSink sink){
+		this.sink = sink;
+	}
+
+	/**
+	 * Create an asynchronous log, which holds up to queueCapacity lines waiting to be written.
+	 */
+	public Log(LogSink sink, int queueCapacity){
+		this.sink = sink;
+		this.queue = new ArrayBlockingQueue<String>(queueCapacity);
+		this.writerThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				drain();
+			}
+		}, "log-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	public boolean isAsync(){
+		return queue != null;
+	}
+
+	// Runs on the writer thread until the log is closed.
+	private void drain(){
+		List<String> batch = new ArrayList<String>();
+		boolean open = true;
+		while (open){
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			queue.drainTo(batch);
+			for (int i = 0; i < batch.size(); i++){
+				String line = batch.get(i);
+				if (line == END){
+					open = false;
+					break;
+				}
+				sink.write(line);
+			}
+			sink.flush();
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Write out every line still waiting, and close the sink. Nothing more should be logged afterwards.
+	 */
+	public void close(){
+		if (queue != null && writerThread.isAlive()){
+			try {
+				queue.put(END);
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		sink.close();
+	}
+
+	/**
+	 * Buffer everything logged by the calling thread into the given list until stopCapture() is called.
+	 */
+	public void startCapture(List<Entry> buffer){
+		capture.set(buffer);
+	}
+
+	public void stopCapture(){
+		capture.remove();
+	}
+
+	/**
+	 * Write out captured entries, in the order they were logged.
+	 */
+	public void replay(List<Entry> buffer){
+		replay(buffer, 0, buffer.size());
+	}
+
+	/**
+	 * Write out the captured entries from position from up to (not including) position to. Each is written as if the
+	 * log was (or wasn't) being written as it was when the entry was captured.
+	 */
+	public void replay(List<Entry> buffer, int from, int to){
+		boolean writing = shouldWrite;
+		for (int i = from; i < to; i++){
+			Entry e = buffer.get(i);
+			shouldWrite = e.shouldWrite;
+			switch (e.kind){
+			case Entry.PRINT: print(e.text); break;
+			case Entry.TEXT: write(e.text); break;
+			case Entry.EDGE: writeEdge(e.edge); break;
+			case Entry.DATA: data(e.from, e.to, e.energy); break;
+			default: writeNodeDown(e.from);
+			}
+		}
+		shouldWrite = writing;
+	}
+
+	/**
+	 * Write captured entries to another process. Nodes are written by index.
+	 */
+	public static void writeEntries(List<Entry> buffer, DataOutputStream out) throws IOException {
+		out.writeInt(buffer.size());
+		for (int i = 0; i < buffer.size(); i++){
+			Entry e = buffer.get(i);
+			out.writeByte(e.kind);
+			out.writeBoolean(e.shouldWrite);
+			switch (e.kind){
+			case Entry.PRINT:
+			case Entry.TEXT:
+				writeText(e.text, out);
+				break;
+			case Entry.EDGE:
+				out.writeInt(e.edge.left.index);
+				out.writeInt(e.edge.right.index);
+				out.writeFloat(e.edge.weight);
+				break;
+			case Entry.DATA:
+				out.writeInt(e.from.index);
+				out.writeInt(e.to.index);
+				out.writeFloat(e.energy);
+				break;
+			default:
+				out.writeInt(e.from.index);
+			}
+		}
+	}
+
+	/**
+	 * Read entries written by writeEntries() onto the end of the given list.
+	 */
+	public static void readEntries(DataInputStream in, List<Node> nodes, List<Entry> buffer) throws IOException {
+		for (int i = in.readInt(); i > 0; i--){
+			int kind = in.readByte();
+			boolean shouldWrite = in.readBoolean();
+			switch (kind){
+			case Entry.PRINT:
+			case Entry.TEXT:
+				buffer.add(new Entry(kind, readText(in), null, null, null, 0, shouldWrite));
+				break;
+			case Entry.EDGE:
+				Node left = nodes.get(in.readInt());
+				Node right = nodes.get(in.readInt());
+				buffer.add(new Entry(kind, null, new Edge(left, right, in.readFloat()), null, null, 0, shouldWrite));
+				break;
+			case Entry.DATA:
+				Node from = nodes.get(in.readInt());
+				Node to = nodes.get(in.readInt());
+				buffer.add(new Entry(kind, null, null, from, to, in.readFloat(), shouldWrite));
+				break;
+			default:
+				buffer.add(new Entry(kind, null, null, nodes.get(in.readInt()), null, 0, shouldWrite));
+			}
+		}
+	}
+
+	// Not writeUTF(), as a bs line lists every leader and can be longer than it allows.
+	private static void writeText(String text, DataOutputStream out) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readText(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Print a line to the console, unless console is false. Everything the simulator prints goes through here.
+	 */
+	public void print(String s){
+		List<Entry> buffer = capture.get();
+		if (buffer != null){
+			buffer.add(new Entry(Entry.PRINT, s, null, null, null, 0, shouldWrite));
+		} else if (console){
+			System.out.println(s);
+		}
+	}
+
+	/**
+	 * @return true if the line was written, rather than captured or discarded
+	 */
+	private boolean write(String s){
+		List<Entry> buffer = capture.get();
+		if (buffer != null){
+			buffer.add(new Entry(Entry.TEXT, s, null, null, null, 0, shouldWrite));
+			return false;
+		}
+		if (!shouldWrite) return false;
+		if (queue == null){
+			sink.write(s);
+			sink.flush();
+		} else {
+			try {
+				queue.put(s);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return true;
+	}
+
+	public void writeBs(List<Node> nodes){
+		if (!shouldWrite) return;
+		StringBuilder s = new StringBuilder("bs ");
+		s.append(nodes.get(0).nodeId);
 		for (int i = 1; i < nodes.size(); i++){
-			s += ", " + nodes.get(i).nodeId;
+			s.append(", ").append(nodes.get(i).nodeId);
 		}
-		Log.write("bs " + s);
+		if (write(s.toString()) && trace != null) trace.bs(nodes);
 	}
-	
-	public static void writeElected(List<Node> nodes){
-		List<Integer> ids = new ArrayList<Integer>();
+
+	public void writeElected(List<Node> nodes){
+		if (!shouldWrite) return;
+		Set<Integer> ids = new LinkedHashSet<Integer>();
 		for (Node n : nodes){
-			if(!ids.contains(n.leaderId)) ids.add(n.leaderId);
+			ids.add(n.leaderId());
 		}
 		for (int n : ids){
-			Log.write("elected " + n);
+			if (write("elected " + n) && trace != null) trace.elected(n);
+		}
+	}
+
+	/**
+	 * Log an edge added to the MST, unless it has been added before. Edges are remembered even while writing is
+	 * switched off, so edges that are re-added when the MST is rebuilt are not logged again.
+	 */
+	public void writeEdge(Edge e){
+		List<Entry> buffer = capture.get();
+		if (buffer != null){
+			buffer.add(new Entry(Entry.EDGE, null, e, null, null, 0, shouldWrite));
+			return;
+		}
+		if (writtenEdges.add(e)){
+			if (write("added " + e.left.nodeId + "-" + e.right.nodeId) && trace != null) trace.added(e.left, e.right);
 		}
 	}
-	
-	public static void writeEdge(Edge e){
-		if (!writtenEdges.contains(e)){
-			Log.write("added " + e.left.nodeId + "-" + e.right.nodeId);
+
+	public void writeData(Node from, Node to){
+		if (!shouldWrite) return;
+		List<Entry> buffer = capture.get();
+		if (buffer != null){
+			buffer.add(new Entry(Entry.DATA, null, null, from, to, from.energyLevel(), shouldWrite));
+			return;
 		}
-		writtenEdges.add(e);
+		data(from, to, from.energyLevel());
 	}
-	
-	public static void writeData(Node from, Node to){
-		Log.write("data from " + from.nodeId + " to " + to.nodeId + ", energy:" + from.energyLevel);
+
+	private void data(Node from, Node to, float energy){
+		if (write("data from " + from.nodeId + " to " + to.nodeId + ", energy:" + energy) && trace != null){
+			trace.data(from, to, energy);
+		}
 	}
-	
-	public static void writeNodeDown(Node n){
-		Log.write("node down " + n.nodeId);
+
+	public void writeNodeDown(Node n){
+		List<Entry> buffer = capture.get();
+		if (buffer != null){
+			buffer.add(new Entry(Entry.NODE_DOWN, null, null, n, null, 0, shouldWrite));
+			return;
+		}
+		if (write("node down " + n.nodeId) && trace != null) trace.nodeDown(n);
 	}
-	
+
 }
@@ -0,0 +1,16 @@
+package simulator;
+
+/**
+ * Somewhere for the lines of the log to go.
+ */
+public interface LogSink {
+
+	void write(String line);
+
+	/**
+	 * Called after each batch of lines, and when the log is closed.
+	 */
+	void flush();
+
+	void close();
+}
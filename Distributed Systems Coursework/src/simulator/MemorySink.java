@@ -0,0 +1,29 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the lines of the log in memory.
+ */
+public class MemorySink implements LogSink {
+
+	public List<String> lines;
+
+	public MemorySink(){
+		this.lines = new ArrayList<String>();
+	}
+
+	@Override
+	public synchronized void write(String line){
+		lines.add(line);
+	}
+
+	@Override
+	public void flush(){
+	}
+
+	@Override
+	public void close(){
+	}
+}
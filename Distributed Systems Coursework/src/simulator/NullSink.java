@@ -0,0 +1,19 @@
+package simulator;
+
+/**
+ * Discards the log.
+ */
+public class NullSink implements LogSink {
+
+	@Override
+	public void write(String line){
+	}
+
+	@Override
+	public void flush(){
+	}
+
+	@Override
+	public void close(){
+	}
+}
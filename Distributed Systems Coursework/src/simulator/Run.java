@@ -1,40 +1,265 @@
 package simulator;
 
+import java.io.IOException;
+
+import network.Checkpoint;
+import network.Metrics;
 import network.Network;
 import network.Node;
+import network.NodeOrder;
+import network.Partition;
+import network.PartitionCoordinator;
 
 public class Run {
 
+	private static final int DEFAULT_PIPELINE_DEPTH = 8;
+	// Tells a copy of Run started by a PartitionCoordinator that it is a worker: -partitionWorker=<partition>:<port>
+	private static final String PARTITION_WORKER = "-partitionWorker=";
+	
 	private static Network network; 
+	private static String checkpointPath;
+	private static Checkpoint.Phase checkpointAfter = Checkpoint.Phase.MST_BUILT;
 	
 	public static void main(String[] args){		
-		if (args.length < 2){
-			System.err.println("Please provide: <filepath> <range>");
+		boolean restore = (args.length > 0 && args[0].startsWith("-restore="));
+		if (args.length < 2 && !restore){
+			System.err.println("Please provide: <filepath> <range> | -restore=<checkpoint>, then [-parallel[=threads] | -eventDriven[=latencyPerUnit]] [-convergecast | -boruvka | -asyncGhs[=threads]] [-incrementalRepair] [-classifyEdges] [-order=hilbert|morton] [-pipeline[=depth]] [-energyAware] [-checkMst] [-partitions=<n>] [-checkpoint=<file>] [-checkpointAfter=discover|buildMst|executeTransmissions] [-syncLog] [-trace=<file>] [-metrics=<file>] [-verbose | -quiet]");
 			System.exit(42);
 		}
-		// Parse the file
-		network = InputParser.buildNetwork(args[0], Float.parseFloat(args[1]));
+		Checkpoint.Phase done = Checkpoint.Phase.PARSED;
+		int firstOption = 2;
+		if (restore){
+			// Carry on from the phase the checkpoint was saved after
+			try {
+				Checkpoint checkpoint = Checkpoint.read(args[0].substring("-restore=".length()));
+				network = checkpoint.network;
+				done = checkpoint.phase;
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(42);
+			}
+			firstOption = 1;
+		} else {
+			// Parse the file
+			network = FastInputParser.buildNetwork(args[0], Float.parseFloat(args[1]));
+		}
+		
+		// Parse any options
+		boolean syncLog = false;
+		boolean quiet = false;
+		String tracePath = null;
+		String metricsPath = null;
+		NodeOrder.Curve order = null;
+		int numPartitions = 1;
+		String worker = null;
+		for (int i = firstOption; i < args.length; i++){
+			String arg = args[i];
+			if (arg.equals("-parallel")){
+				network.executionMode = Network.ExecutionMode.PARALLEL;
+			} else if (arg.startsWith("-parallel=")){
+				network.executionMode = Network.ExecutionMode.PARALLEL;
+				network.numThreads = Integer.parseInt(arg.substring("-parallel=".length()));
+			} else if (arg.equals("-eventDriven")){
+				network.executionMode = Network.ExecutionMode.EVENT_DRIVEN;
+			} else if (arg.startsWith("-eventDriven=")){
+				network.executionMode = Network.ExecutionMode.EVENT_DRIVEN;
+				network.latencyPerUnit = Float.parseFloat(arg.substring("-eventDriven=".length()));
+			} else if (arg.equals("-convergecast")){
+				network.reportMode = Network.ReportMode.CONVERGECAST;
+			} else if (arg.equals("-boruvka")){
+				network.mstMode = Network.MstMode.BORUVKA;
+			} else if (arg.equals("-asyncGhs")){
+				network.mstMode = Network.MstMode.ASYNC_GHS;
+			} else if (arg.startsWith("-asyncGhs=")){
+				network.mstMode = Network.MstMode.ASYNC_GHS;
+				network.numThreads = Integer.parseInt(arg.substring("-asyncGhs=".length()));
+			} else if (arg.equals("-incrementalRepair")){
+				network.incrementalRepair = true;
+			} else if (arg.equals("-classifyEdges")){
+				network.classifyEdges = true;
+			} else if (arg.startsWith("-order=")){
+				String curve = arg.substring("-order=".length());
+				if (curve.equals("hilbert")){
+					order = NodeOrder.Curve.HILBERT;
+				} else if (curve.equals("morton")){
+					order = NodeOrder.Curve.MORTON;
+				} else {
+					System.err.println("Unknown order: " + curve);
+					System.exit(42);
+				}
+			} else if (arg.equals("-pipeline")){
+				network.pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+			} else if (arg.startsWith("-pipeline=")){
+				network.pipelineDepth = Integer.parseInt(arg.substring("-pipeline=".length()));
+			} else if (arg.equals("-energyAware")){
+				network.weightMode = Network.WeightMode.ENERGY_AWARE;
+			} else if (arg.equals("-checkMst")){
+				network.checkMst = true;
+			} else if (arg.startsWith("-partitions=")){
+				numPartitions = Integer.parseInt(arg.substring("-partitions=".length()));
+			} else if (arg.startsWith(PARTITION_WORKER)){
+				worker = arg.substring(PARTITION_WORKER.length());
+			} else if (arg.startsWith("-checkpoint=")){
+				checkpointPath = arg.substring("-checkpoint=".length());
+			} else if (arg.startsWith("-checkpointAfter=")){
+				String phase = arg.substring("-checkpointAfter=".length());
+				if (phase.equals("discover")){
+					checkpointAfter = Checkpoint.Phase.DISCOVERED;
+				} else if (phase.equals("buildMst")){
+					checkpointAfter = Checkpoint.Phase.MST_BUILT;
+				} else if (phase.equals("executeTransmissions")){
+					checkpointAfter = Checkpoint.Phase.TRANSMITTED;
+				} else {
+					System.err.println("Unknown phase: " + phase);
+					System.exit(42);
+				}
+			} else if (arg.equals("-syncLog")){
+				syncLog = true;
+			} else if (arg.startsWith("-trace=")){
+				tracePath = arg.substring("-trace=".length());
+			} else if (arg.startsWith("-metrics=")){
+				metricsPath = arg.substring("-metrics=".length());
+				network.metrics = new Metrics();
+			} else if (arg.equals("-verbose")){
+				network.bus.traceMessages = true;
+			} else if (arg.equals("-quiet")){
+				quiet = true;
+			} else {
+				System.err.println("Unknown option: " + arg);
+				System.exit(42);
+			}
+		}
+		
+		if (network.classifyEdges && network.mstMode == Network.MstMode.GHS
+				&& network.reportMode != Network.ReportMode.CONVERGECAST){
+			System.err.println("-classifyEdges needs -convergecast");
+			System.exit(42);
+		}
+		
+		// In the broadcast reporting mode, rebuilding the whole tree after every broadcast doesn't terminate.
+		if (network.weightMode == Network.WeightMode.ENERGY_AWARE && network.mstMode == Network.MstMode.GHS
+				&& network.reportMode != Network.ReportMode.CONVERGECAST){
+			System.err.println("-energyAware needs -convergecast, -boruvka or -asyncGhs");
+			System.exit(42);
+		}
+		
+		if (numPartitions > 1 && (restore || checkpointPath != null || tracePath != null || metricsPath != null
+				|| network.executionMode != Network.ExecutionMode.SEQUENTIAL || network.mstMode != Network.MstMode.GHS
+				|| network.incrementalRepair || network.pipelineDepth > 1
+				|| network.weightMode != Network.WeightMode.DISTANCE || network.checkMst || network.bus.traceMessages)){
+			System.err.println("-partitions can't be used with -restore, -checkpoint, -trace, -metrics, -parallel, "
+					+ "-eventDriven, -boruvka, -asyncGhs, -incrementalRepair, -pipeline, -energyAware, -checkMst or -verbose");
+			System.exit(42);
+		}
+		
+		if (order != null){
+			if (restore){
+				System.err.println("-order can't be used with -restore, as the nodes are already in their saved order");
+				System.exit(42);
+			}
+			network.orderNodes(order);
+		}
+		
+		if (worker != null){
+			// Everything a worker logs or prints goes to the coordinator.
+			String[] parts = worker.split(":");
+			network.log = new Log(new NullSink());
+			network.partition = new Partition(network, Integer.parseInt(parts[0]), numPartitions);
+			try {
+				network.partition.connect(Integer.parseInt(parts[1]));
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(42);
+			}
+		} else if (!syncLog){
+			network.log = new Log(new FileSink(Log.DEFAULT_PATH), Log.DEFAULT_QUEUE_CAPACITY);
+		}
+		network.log.console = !quiet;
+		if (numPartitions > 1 && worker == null){
+			// Run a copy of this simulation for each partition, and merge what they do.
+			int status = 42;
+			try {
+				status = new PartitionCoordinator(network, numPartitions).run(Run.class, args, PARTITION_WORKER);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			network.log.close();
+			if (status != 0) System.exit(status);
+			return;
+		}
+		if (tracePath != null){
+			try {
+				network.startTrace(new TraceWriter(tracePath, network.nodes));
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(42);
+			}
+		}
 		
 		// Discover from each node
-		network.discover();
+		if (done.compareTo(Checkpoint.Phase.DISCOVERED) < 0){
+			network.discover();
+			checkpoint(Checkpoint.Phase.DISCOVERED);
+		}
 		
 		// Build the MST
-		network.buildMst();
+		if (done.compareTo(Checkpoint.Phase.MST_BUILT) < 0){
+			network.buildMst();
+			checkpoint(Checkpoint.Phase.MST_BUILT);
+		}
 		
 		// Execute the Broadcast messages.
-        network.executeTransmissions();
+		if (done.compareTo(Checkpoint.Phase.TRANSMITTED) < 0){
+			network.executeTransmissions();
+			checkpoint(Checkpoint.Phase.TRANSMITTED);
+		}
 		
 		for (Node n : network.nodes){
-			if (n.isAlive){
-				System.out.print("Tree nodes for " + n.nodeId + " ");
+			if (!network.acts(n)) continue;
+			if (n.isAlive()){
+				StringBuilder line = new StringBuilder("Tree nodes for " + n.nodeId + " ");
 				for (Node m : n.treeNodes){
-					System.out.print(m.nodeId + " ");
+					line.append(m.nodeId).append(" ");
 				}
-				System.out.println();
+				network.log.print(line.toString());
+			} else {
+				network.log.print(n.toString() + " is dead");
+			}
+			network.acted();
+		}
+		if (network.partition != null) network.partition.finish();
+		
+		network.log.close();
+		if (metricsPath != null){
+			Metrics.Snapshot metrics = network.metrics.snapshot();
+			for (Metrics.Phase p : metrics.phases){
+				network.log.print("Metrics (" + p.name + "): " + p.rounds + " rounds, " + p.totalMessages()
+						+ " messages, " + p.energyConsumed + " energy, " + p.timestepNanos / 1000000 + " ms stepping, "
+						+ p.deliveryNanos / 1000000 + " ms delivering");
+			}
+			if (metricsPath.endsWith(".json")){
+				network.metrics.writeJson(metricsPath);
 			} else {
-				System.out.println(n.toString() + " is dead");
+				network.metrics.writeCsv(metricsPath);
 			}
 		}
+		if (network.trace != null) network.trace.close();
+		if (network.mstCheckFailures > 0){
+			System.err.println(network.mstCheckFailures + " of " + network.mstChecks + " MST checks failed");
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Save the network if a checkpoint was asked for after the given phase.
+	 */
+	private static void checkpoint(Checkpoint.Phase phase){
+		if (checkpointPath == null || phase != checkpointAfter) return;
+		try {
+			Checkpoint.write(network, phase, checkpointPath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 	
 }
@@ -0,0 +1,225 @@
+package simulator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import network.Message;
+
+/**
+ * Reads a trace written by TraceWriter one record at a time. After each call to next(), the fields describe the record
+ * that was read, with nodes given by their ids.
+ *
+ * Usage: TraceReader <tracefile> [log | stats]
+ * "log" prints the text log the simulation wrote, exactly as it would appear in output/log.txt. "stats" prints how many
+ * messages of each type were delivered in each round, as CSV.
+ */
+public class TraceReader {
+
+	public enum Kind {
+		MESSAGE, ROUND, BS, ELECTED, ADDED, DATA, NODE_DOWN
+	}
+
+	private static final Message.Type[] TYPES = Message.Type.values();
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_RECORD = 16;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private boolean endOfFile;
+
+	public int[] nodeIds; // The id of each node, by index
+
+	// The record last read
+	public Kind kind;
+	public Message.Type type; // MESSAGE
+	public int from;          // MESSAGE, ADDED, DATA and NODE_DOWN
+	public int to;            // MESSAGE, ADDED and DATA
+	public int round;         // ROUND
+	public int leaderId;      // ELECTED
+	public float energy;      // DATA
+	public int[] leaders;     // BS, the first numLeaders entries
+	public int numLeaders;
+
+	public TraceReader(String filepath) throws IOException {
+		this.channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ);
+		this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		this.buffer.flip();
+		this.endOfFile = false;
+		this.leaders = new int[16];
+
+		fill(5);
+		if (buffer.remaining() < 5 || buffer.getInt() != TraceWriter.MAGIC){
+			throw new IOException(filepath + " is not a trace");
+		}
+		int version = buffer.get();
+		if (version != TraceWriter.VERSION){
+			throw new IOException("Unsupported trace version " + version);
+		}
+		fill(MAX_RECORD);
+		nodeIds = new int[readVarint()];
+		for (int i = 0; i < nodeIds.length; i++){
+			fill(MAX_RECORD);
+			nodeIds[i] = readSigned();
+		}
+	}
+
+	/**
+	 * Read the next record.
+	 * @return false if there are no more records
+	 */
+	public boolean next() throws IOException {
+		fill(MAX_RECORD);
+		if (!buffer.hasRemaining()) return false;
+		int tag = buffer.get() & 0xFF;
+		switch (tag){
+		case TraceWriter.ROUND:
+			kind = Kind.ROUND;
+			round = readVarint();
+			break;
+		case TraceWriter.BS:
+			kind = Kind.BS;
+			numLeaders = readVarint();
+			if (leaders.length < numLeaders){
+				leaders = new int[Math.max(numLeaders, leaders.length * 2)];
+			}
+			for (int i = 0; i < numLeaders; i++){
+				fill(MAX_RECORD);
+				leaders[i] = nodeIds[readVarint()];
+			}
+			break;
+		case TraceWriter.ELECTED:
+			kind = Kind.ELECTED;
+			leaderId = readSigned();
+			break;
+		case TraceWriter.ADDED:
+			kind = Kind.ADDED;
+			from = nodeIds[readVarint()];
+			to = nodeIds[readVarint()];
+			break;
+		case TraceWriter.DATA:
+			kind = Kind.DATA;
+			from = nodeIds[readVarint()];
+			to = nodeIds[readVarint()];
+			energy = buffer.getFloat();
+			break;
+		case TraceWriter.NODE_DOWN:
+			kind = Kind.NODE_DOWN;
+			from = nodeIds[readVarint()];
+			break;
+		default:
+			if (tag >= TYPES.length){
+				throw new IOException("Unknown record " + tag);
+			}
+			kind = Kind.MESSAGE;
+			type = TYPES[tag];
+			from = nodeIds[readVarint()];
+			to = nodeIds[readVarint()];
+		}
+		return true;
+	}
+
+	/**
+	 * @return the line the record was written to the text log as, or null if it was not written to the log
+	 */
+	public String toLogLine(){
+		switch (kind){
+		case BS:
+			StringBuilder s = new StringBuilder("bs ");
+			s.append(leaders[0]);
+			for (int i = 1; i < numLeaders; i++){
+				s.append(", ").append(leaders[i]);
+			}
+			return s.toString();
+		case ELECTED:
+			return "elected " + leaderId;
+		case ADDED:
+			return "added " + from + "-" + to;
+		case DATA:
+			return "data from " + from + " to " + to + ", energy:" + energy;
+		case NODE_DOWN:
+			return "node down " + from;
+		default:
+			return null;
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// Make sure at least the given number of bytes are buffered, unless the file ends first.
+	private void fill(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes || endOfFile) return;
+		buffer.compact();
+		while (buffer.position() < bytes && !endOfFile){
+			if (channel.read(buffer) < 0) endOfFile = true;
+		}
+		buffer.flip();
+	}
+
+	private int readVarint(){
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private int readSigned(){
+		int value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static void main(String[] args){
+		if (args.length < 1){
+			System.err.println("Please provide: <tracefile> [log | stats]");
+			System.exit(42);
+		}
+		boolean stats = (args.length > 1 && args[1].equals("stats"));
+		try {
+			TraceReader reader = new TraceReader(args[0]);
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out));
+			long[] counts = new long[TYPES.length];
+			if (stats){
+				out.write("round, messages");
+				for (Message.Type t : TYPES) out.write(", " + t);
+				out.newLine();
+			}
+			while (reader.next()){
+				if (stats){
+					if (reader.kind == Kind.MESSAGE){
+						counts[reader.type.ordinal()]++;
+					} else if (reader.kind == Kind.ROUND){
+						long total = 0;
+						for (long c : counts) total += c;
+						out.write(reader.round + ", " + total);
+						for (int i = 0; i < counts.length; i++){
+							out.write(", " + counts[i]);
+							counts[i] = 0;
+						}
+						out.newLine();
+					}
+				} else {
+					String line = reader.toLogLine();
+					if (line != null){
+						out.write(line);
+						out.newLine();
+					}
+				}
+			}
+			out.flush();
+			reader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
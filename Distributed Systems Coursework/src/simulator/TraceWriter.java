@@ -0,0 +1,153 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import network.Message;
+import network.Node;
+
+/**
+ * Writes a compact binary trace of a simulation: every message delivered, the end of every round, and every line
+ * written to the text log. TraceReader can turn a trace back into the text log, or into statistics for each round.
+ *
+ * The trace starts with a header: the magic number, the format version, the number of nodes and the id of each node.
+ * Nodes are referred to by their index in the network from then on. Each record starts with a one byte tag, which for
+ * a message is the ordinal of its type. Integers are written as varints, so that small indices take a single byte,
+ * and signed values (node ids and leader ids) are zigzag encoded first. Energy levels are written as 4 byte floats.
+ */
+public class TraceWriter {
+
+	public static final int MAGIC = 0x4D535454; // "MSTT"
+	public static final int VERSION = 1;
+
+	// Tags of the records which are not messages. Message types use the tags below these.
+	static final int ROUND = 64;
+	static final int BS = 65;
+	static final int ELECTED = 66;
+	static final int ADDED = 67;
+	static final int DATA = 68;
+	static final int NODE_DOWN = 69;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// The longest record apart from bs, which is written a varint at a time.
+	private static final int MAX_RECORD = 16;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	public long numRecords;
+
+	/**
+	 * Create the trace file, and write the header for the given nodes. Nodes must not be added to the network after
+	 * this.
+	 */
+	public TraceWriter(String filepath, List<Node> nodes) throws IOException {
+		this.channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.numRecords = 0;
+
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		writeVarint(nodes.size());
+		for (int i = 0; i < nodes.size(); i++){
+			ensureSpace(MAX_RECORD);
+			writeSigned(nodes.get(i).nodeId);
+		}
+	}
+
+	public void message(Message.Type type, int sender, int receiver){
+		startRecord(type.ordinal());
+		writeVarint(sender);
+		writeVarint(receiver);
+	}
+
+	public void round(int round){
+		startRecord(ROUND);
+		writeVarint(round);
+	}
+
+	public void bs(List<Node> leaders){
+		startRecord(BS);
+		writeVarint(leaders.size());
+		for (int i = 0; i < leaders.size(); i++){
+			ensureSpace(MAX_RECORD);
+			writeVarint(leaders.get(i).index);
+		}
+	}
+
+	public void elected(int leaderId){
+		startRecord(ELECTED);
+		writeSigned(leaderId);
+	}
+
+	public void added(Node left, Node right){
+		startRecord(ADDED);
+		writeVarint(left.index);
+		writeVarint(right.index);
+	}
+
+	public void data(Node from, Node to, float energy){
+		startRecord(DATA);
+		writeVarint(from.index);
+		writeVarint(to.index);
+		buffer.putFloat(energy);
+	}
+
+	public void nodeDown(Node n){
+		startRecord(NODE_DOWN);
+		writeVarint(n.index);
+	}
+
+	/**
+	 * Write out everything buffered and close the file.
+	 */
+	public void close(){
+		try {
+			flushBuffer();
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void startRecord(int tag){
+		ensureSpace(MAX_RECORD);
+		buffer.put((byte) tag);
+		numRecords++;
+	}
+
+	private void ensureSpace(int bytes){
+		if (buffer.remaining() < bytes){
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void writeVarint(int value){
+		while ((value & ~0x7F) != 0){
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private void writeSigned(int value){
+		writeVarint((value << 1) ^ (value >> 31));
+	}
+}